@@ -24,7 +24,7 @@ public class Lab2 {
      * 7)+ 5040/8/7/6/5/4/3/2 (0.125)
      * 8)+ 10-9-8-7-6-5-4-3-2-1 (-35)
      * 9)+ 64-(32-16)-8-(4-2-1) (39)
-     * 10) 3^3^3^3^3
+     * 10)+ 3^3^3^3^3 (Infinity)
      * 11)+? -i/1.0 + 0 - 0*k*h + 2 - 4.8/2 + 1*e/2
      * 12) a*2/0 + b/(b+b*0-1*b) - 1/(c*2*4.76*(1-2+1))
      * @param args
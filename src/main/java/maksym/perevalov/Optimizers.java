@@ -2,9 +2,7 @@ package maksym.perevalov;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.DuplicateFormatFlagsException;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -20,6 +18,7 @@ import maksym.perevalov.tree.MathContext;
 import maksym.perevalov.tree.MathElement;
 import maksym.perevalov.tree.TreeBuilder;
 import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeNodeFactory;
 import maksym.perevalov.tree.TreeOptimizer;
 
 /**
@@ -28,8 +27,6 @@ import maksym.perevalov.tree.TreeOptimizer;
  * "a*(b+c-1)*d"
  */
 public class Optimizers {
-    private static final Deque<TreeNode> stack = new LinkedList<>();
-
     public static void main(String[] args) {
 
         var context = new MathContext(Collections.emptyList());
@@ -43,8 +40,15 @@ public class Optimizers {
     }
 
     public static List<TreeNode> traverse(TreeNode node) {
+        return traverse(node, new TreeNodeFactory());
+    }
+
+    /**
+     * Variants are made by the factory, so the subtrees they have in common are shared instead of copied.
+     */
+    public static List<TreeNode> traverse(TreeNode node, TreeNodeFactory factory) {
         if (node == null) return List.of();
-        if (node.value() instanceof MathElement.Value) return List.of(node);
+        if (node.value() instanceof MathElement.Value) return List.of(factory.intern(node));
 
         List<TreeNode> current = new ArrayList<>(List.of(node));
 
@@ -54,11 +58,11 @@ public class Optimizers {
 
         var treeNodes = new ArrayList<TreeNode>();
         for (TreeNode curr : current) {
-            var newLefts = traverse(curr.left());
-            var newRights = traverse(curr.right());
+            var newLefts = traverse(curr.left(), factory);
+            var newRights = traverse(curr.right(), factory);
             for (TreeNode newLeft : newLefts) {
                 for (TreeNode newRight : newRights) {
-                    treeNodes.add(curr.withRight(newRight).withLeft(newLeft));
+                    treeNodes.add(factory.node(curr.value(), newLeft, newRight, curr.isBrackets()));
                 }
             }
         }
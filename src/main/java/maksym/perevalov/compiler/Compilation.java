@@ -0,0 +1,16 @@
+package maksym.perevalov.compiler;
+
+import java.util.List;
+
+import maksym.perevalov.tree.TreeNode;
+
+public sealed interface Compilation {
+
+    String source();
+
+    record Compiled(String source, TreeNode tree) implements Compilation {
+    }
+
+    record Failed(String source, List<String> errors) implements Compilation {
+    }
+}
@@ -0,0 +1,124 @@
+package maksym.perevalov.compiler;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import maksym.perevalov.tree.MathContext;
+
+/**
+ * Bounded cache of compilations keyed by the source and {@link MathContext#functionsFingerprint()}.
+ * Entries are spread over segments with their own lock and least recently used order, each segment getting an equal part
+ * of the total weight, so a small cache has one segment and exact LRU order.
+ */
+public class CompilationCache {
+    private static final int MAX_SEGMENTS = 16;
+    private static final long MIN_SEGMENT_WEIGHT = 64;
+
+    private final Segment[] segments;
+    private final ToLongFunction<Compilation> weigher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private CompilationCache(long maxWeight, ToLongFunction<Compilation> weigher) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Cache weight has to be positive, got " + maxWeight);
+        }
+        int count = (int) Math.min(MAX_SEGMENTS, Long.highestOneBit(Math.max(1, maxWeight / MIN_SEGMENT_WEIGHT)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((maxWeight + count - 1) / count);
+        }
+        this.weigher = weigher;
+    }
+
+    public static CompilationCache ofSize(long maxEntries) {
+        return new CompilationCache(maxEntries, _ -> 1);
+    }
+
+    public static CompilationCache ofWeight(long maxWeight, ToLongFunction<Compilation> weigher) {
+        return new CompilationCache(maxWeight, weigher);
+    }
+
+    /**
+     * Weight in tree nodes, or in messages for a failed compilation.
+     */
+    public static long treeWeight(Compilation compilation) {
+        return switch (compilation) {
+            case Compilation.Compiled c -> c.tree().weight();
+            case Compilation.Failed f -> Math.max(1, f.errors().size());
+        };
+    }
+
+    public Compilation get(String source, MathContext context) {
+        var key = new Key(source, context.functionsFingerprint());
+        var compilation = segment(key).get(key);
+        (compilation == null ? misses : hits).increment();
+        return compilation;
+    }
+
+    /**
+     * Caches {@code compilation} unless another thread has already cached one for the same key, and returns the cached one.
+     */
+    public Compilation putIfAbsent(String source, MathContext context, Compilation compilation) {
+        var key = new Key(source, context.functionsFingerprint());
+        return segment(key).putIfAbsent(key, compilation, weigher.applyAsLong(compilation));
+    }
+
+    public Stats stats() {
+        long size = 0, weight = 0;
+        for (var segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+                weight += segment.weight;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, weight);
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ hash >>> 16) & segments.length - 1];
+    }
+
+    private record Key(String source, String functions) {
+    }
+
+    private record Entry(Compilation compilation, long weight) {
+    }
+
+    public record Stats(long hits, long misses, long evictions, long size, long weight) {
+    }
+
+    private final class Segment extends LinkedHashMap<Key, Entry> {
+        private final long maxWeight;
+        private long weight;
+
+        Segment(long maxWeight) {
+            super(16, 0.75f, true);
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Compilation get(Key key) {
+            var entry = super.get(key);
+            return entry == null ? null : entry.compilation();
+        }
+
+        synchronized Compilation putIfAbsent(Key key, Compilation compilation, long entryWeight) {
+            var cached = super.get(key);
+            if (cached != null) {
+                return cached.compilation();
+            }
+            put(key, new Entry(compilation, entryWeight));
+            weight += entryWeight;
+            var eldest = entrySet().iterator();
+            while (weight > maxWeight) {
+                weight -= eldest.next().getValue().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+            return compilation;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package maksym.perevalov.compiler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.TokenBuffer;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Parses and optimizes formulas, one at a time or in batches split over a {@link ForkJoinPool}.
+ * The front end objects are single use, so each formula gets new ones, while token buffers are kept per thread
+ * and reused by every formula compiled on it. A compiler can be shared by any number of threads.
+ * With a {@link CompilationCache} a formula already compiled for the same functions is taken from the cache.
+ */
+public class Compiler {
+    private static final int BATCH_THRESHOLD = 16;
+
+    private final ForkJoinPool pool;
+    private final CompilationCache cache;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    public Compiler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public Compiler(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    public Compiler(ForkJoinPool pool, CompilationCache cache) {
+        this.pool = pool;
+        this.cache = cache;
+    }
+
+    public Compilation compile(String source, MathContext context) {
+        if (cache == null) {
+            return compileUncached(source, context);
+        }
+        var cached = cache.get(source, context);
+        return cached != null ? cached : cache.putIfAbsent(source, context, compileUncached(source, context));
+    }
+
+    private Compilation compileUncached(String source, MathContext context) {
+        var errorCollector = new ErrorCollector();
+        var syntaxTokens = scratch.get().parse(source, context, errorCollector);
+        if (errorCollector.hasErrors()) {
+            return new Compilation.Failed(source, errorCollector.report());
+        }
+        try {
+            var tree = new InfixToTreeTransformer().transform(syntaxTokens);
+            return new Compilation.Compiled(source, new TreeOptimizer(tree).optimize());
+        } catch (RuntimeException e) {
+            return new Compilation.Failed(source, List.of(String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Compilations in the order of {@code sources}.
+     */
+    public List<Compilation> compileAll(List<String> sources, MathContext context) {
+        var results = new Compilation[sources.size()];
+        pool.invoke(new CompileTask(sources, context, results, 0, sources.size()));
+        return Arrays.asList(results);
+    }
+
+    private final class CompileTask extends RecursiveAction {
+        private final List<String> sources;
+        private final MathContext context;
+        private final Compilation[] results;
+        private final int from;
+        private final int to;
+
+        CompileTask(List<String> sources, MathContext context, Compilation[] results, int from, int to) {
+            this.sources = sources;
+            this.context = context;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = compile(sources.get(i), context);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                  new CompileTask(sources, context, results, from, middle),
+                  new CompileTask(sources, context, results, middle, to)
+            );
+        }
+    }
+
+    /**
+     * Buffers of one thread. The syntax tokens are valid until the next formula is parsed on the same thread.
+     */
+    private static final class Scratch {
+        private char[] source = new char[256];
+        private final TokenBuffer tokens = TokenBuffer.over(source);
+        private final TokenBuffer syntaxTokens = tokens.sharingText();
+
+        TokenBuffer parse(String input, MathContext context, ErrorCollector errorCollector) {
+            if (input.length() > source.length) {
+                source = new char[Math.max(input.length(), source.length * 2)];
+            }
+            input.getChars(0, input.length(), source, 0);
+            tokens.reset(source, input.length());
+            syntaxTokens.clear();
+            new Tokenizer(context, errorCollector).scan(tokens);
+            var parser = new SyntaxParser(tokens, syntaxTokens, new BracketsContext(errorCollector), errorCollector);
+            return parser.parseTokens();
+        }
+    }
+}
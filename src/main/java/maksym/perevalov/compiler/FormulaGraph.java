@@ -0,0 +1,321 @@
+package maksym.perevalov.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.MathContext;
+
+/**
+ * Named formulas that read each other, like the cells of a spreadsheet. A formula is compiled by a {@link Compiler}
+ * to a {@link StackProgram}, and every variable it reads is a cell: another formula or an input, a name that is set,
+ * or read from the context until it is. A definition that would make a cycle is rejected and leaves the graph as it was.
+ * Cells are kept in levels: an input is on level 0 and a formula one level above the highest cell it reads,
+ * so the cells of a level do not read each other. Setting an input or defining a formula marks the cells that read it,
+ * directly or not, and {@link #recalculate()} goes over their levels in order, evaluating the cells of a big level in parallel.
+ * A cell is evaluated only when a cell it reads has got another value, so a change stops where it makes no difference.
+ * A graph is not thread safe, only its recalculation is split over the pool.
+ */
+public final class FormulaGraph {
+    private static final int BATCH_THRESHOLD = 16;
+
+    private final MathContext context;
+    private final Compiler compiler;
+    private final ForkJoinPool pool;
+    private final Map<String, Cell> cells = new LinkedHashMap<>();
+    private final List<Cell> marked = new ArrayList<>();
+    private List<Cell> order = List.of();
+    private boolean orderChanged;
+    private int evaluated;
+
+    public FormulaGraph(MathContext context) {
+        this(context, new Compiler(), ForkJoinPool.commonPool());
+    }
+
+    public FormulaGraph(MathContext context, Compiler compiler, ForkJoinPool pool) {
+        this.context = context;
+        this.compiler = compiler;
+        this.pool = pool;
+    }
+
+    /**
+     * Binds the formula to the name, replacing what the name was bound to.
+     *
+     * @throws IllegalArgumentException when the formula does not compile or reads the name, directly or through other formulas
+     */
+    public FormulaGraph define(String name, String formula) {
+        var tree = switch (compiler.compile(formula, context)) {
+            case Compilation.Compiled compiled -> compiled.tree();
+            case Compilation.Failed failed -> throw new IllegalArgumentException("Formula '%s' does not compile: %s"
+                  .formatted(name, String.join("; ", failed.errors())));
+        };
+        var program = StackProgram.compile(tree, context.functions());
+        var cycle = findPath(program.variables(), name);
+        if (cycle != null) {
+            throw new IllegalArgumentException("Formula '%s' makes a cycle: %s -> %s".formatted(name, name, String.join(" -> ", cycle)));
+        }
+        var cell = cell(name);
+        var reads = new Cell[program.slotCount()];
+        for (int slot = 0; slot < reads.length; slot++) {
+            reads[slot] = cell(program.variables().get(slot));
+        }
+        cell.bind(program, reads);
+        orderChanged = true;
+        mark(cell);
+        return this;
+    }
+
+    /**
+     * Makes the name an input of the value, a formula bound to it is dropped.
+     */
+    public FormulaGraph set(String name, double value) {
+        var cell = cell(name);
+        if (cell.program != null) {
+            cell.bind(null, new Cell[0]);
+            orderChanged = true;
+        } else if (Double.compare(cell.value, value) == 0) {
+            return this;
+        }
+        cell.value = value;
+        cell.changed = true;
+        mark(cell);
+        return this;
+    }
+
+    /**
+     * The value of the cell after recalculation.
+     *
+     * @throws IllegalArgumentException when no formula reads the name and it was never set or defined
+     */
+    public double get(String name) {
+        var cell = cells.get(name);
+        if (cell == null) {
+            throw new IllegalArgumentException("Unknown cell '%s'".formatted(name));
+        }
+        recalculate();
+        return cell.value;
+    }
+
+    /**
+     * Names of all cells, every cell goes after the cells it reads.
+     */
+    public List<String> evaluationOrder() {
+        updateOrder();
+        return order.stream().map(cell -> cell.name).toList();
+    }
+
+    /**
+     * The number of formulas the last recalculation evaluated, a call with nothing marked is not counted as one.
+     */
+    public int evaluated() {
+        return evaluated;
+    }
+
+    /**
+     * Evaluates the marked formulas level by level, each only when a cell it reads has changed.
+     */
+    public void recalculate() {
+        if (marked.isEmpty()) return;
+        updateOrder();
+        marked.sort(Comparator.comparingInt(cell -> cell.level));
+        int count = 0;
+        for (int from = 0; from < marked.size(); ) {
+            int level = marked.get(from).level;
+            int to = from;
+            while (to < marked.size() && marked.get(to).level == level) {
+                to++;
+            }
+            var cells = marked.subList(from, to).toArray(Cell[]::new);
+            if (cells.length > BATCH_THRESHOLD) {
+                pool.invoke(new EvaluateTask(cells, 0, cells.length));
+            } else {
+                for (var cell : cells) {
+                    cell.evaluate();
+                }
+            }
+            for (var cell : cells) {
+                count += cell.evaluated ? 1 : 0;
+            }
+            from = to;
+        }
+        for (var cell : marked) {
+            cell.marked = false;
+            cell.changed = false;
+            cell.evaluated = false;
+        }
+        marked.clear();
+        evaluated = count;
+    }
+
+    private Cell cell(String name) {
+        return cells.computeIfAbsent(name, _ -> {
+            orderChanged = true;
+            var cell = new Cell(name);
+            cell.value = context.readVariable(name);
+            return cell;
+        });
+    }
+
+    /**
+     * Marks the cell and every cell that reads it, directly or not.
+     */
+    private void mark(Cell changed) {
+        var queue = new ArrayDeque<Cell>();
+        queue.add(changed);
+        while (!queue.isEmpty()) {
+            var cell = queue.poll();
+            if (cell.marked) continue;
+            cell.marked = true;
+            marked.add(cell);
+            queue.addAll(cell.readers);
+        }
+    }
+
+    /**
+     * A path of reads from one of the names to the target, or null when there is none.
+     */
+    private List<String> findPath(List<String> names, String target) {
+        // every visited name with the name whose formula reads it, the names to start from with an empty one
+        var previous = new HashMap<String, String>();
+        var stack = new ArrayDeque<String>();
+        for (var name : names) {
+            if (previous.putIfAbsent(name, "") == null) {
+                stack.push(name);
+            }
+        }
+        while (!stack.isEmpty()) {
+            var name = stack.pop();
+            if (name.equals(target)) {
+                var path = new ArrayList<String>();
+                for (var current = name; !current.isEmpty(); current = previous.get(current)) {
+                    path.add(current);
+                }
+                return path.reversed();
+            }
+            var cell = cells.get(name);
+            if (cell == null) continue;
+            for (var read : cell.reads) {
+                if (previous.putIfAbsent(read.name, name) == null) {
+                    stack.push(read.name);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Kahn's algorithm over all cells, it gives every cell its level.
+     */
+    private void updateOrder() {
+        if (!orderChanged) return;
+        var pending = new HashMap<Cell, Integer>();
+        var ready = new ArrayDeque<Cell>();
+        for (var cell : cells.values()) {
+            pending.put(cell, cell.reads.length);
+            if (cell.reads.length == 0) {
+                cell.level = 0;
+                ready.add(cell);
+            }
+        }
+        var sorted = new ArrayList<Cell>(cells.size());
+        while (!ready.isEmpty()) {
+            var cell = ready.poll();
+            sorted.add(cell);
+            for (var reader : cell.readers) {
+                int left = pending.merge(reader, -1, Integer::sum);
+                if (left == 0) {
+                    reader.level = Arrays.stream(reader.reads).mapToInt(read -> read.level).max().orElse(-1) + 1;
+                    ready.add(reader);
+                }
+            }
+        }
+        if (sorted.size() != cells.size()) {
+            throw new IllegalStateException("Cells make a cycle");
+        }
+        order = sorted;
+        orderChanged = false;
+    }
+
+    private static final class Cell {
+        final String name;
+        StackProgram program;
+        StackMachine machine;
+        double[] slots;
+        // the cells the formula reads, one per slot, and the cells whose formulas read this one
+        Cell[] reads = new Cell[0];
+        final List<Cell> readers = new ArrayList<>();
+        double value;
+        int level;
+        boolean marked;
+        boolean changed;
+        boolean evaluated;
+
+        Cell(String name) {
+            this.name = name;
+        }
+
+        void bind(StackProgram program, Cell[] reads) {
+            for (var read : this.reads) {
+                read.readers.remove(this);
+            }
+            this.program = program;
+            this.machine = program == null ? null : new StackMachine(program);
+            this.slots = program == null ? null : new double[program.slotCount()];
+            this.reads = reads;
+            for (var read : reads) {
+                read.readers.add(this);
+            }
+            // a new formula is evaluated even when nothing it reads has changed
+            this.changed = program != null;
+        }
+
+        /**
+         * Reads only cells of lower levels, which are evaluated already, and writes only its own fields.
+         */
+        void evaluate() {
+            if (program == null || !changed && Arrays.stream(reads).noneMatch(read -> read.changed)) {
+                return;
+            }
+            for (int slot = 0; slot < reads.length; slot++) {
+                slots[slot] = reads[slot].value;
+            }
+            double newValue = machine.evaluate(slots);
+            evaluated = true;
+            changed = changed || Double.compare(value, newValue) != 0;
+            value = newValue;
+        }
+    }
+
+    private static final class EvaluateTask extends RecursiveAction {
+        private final Cell[] cells;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(Cell[] cells, int from, int to) {
+            this.cells = cells;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    cells[i].evaluate();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(cells, from, middle), new EvaluateTask(cells, middle, to));
+        }
+    }
+}
@@ -0,0 +1,734 @@
+package maksym.perevalov.eval;
+
+import static maksym.perevalov.eval.StackProgram.*;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.NativeFunction;
+import maksym.perevalov.tree.TreeNode;
+
+/**
+ * Interpreter of a {@link StackProgram} turned back into a tree of executable nodes, a final class per operation
+ * and per common shape of its operands, such as {@link MulSlotSlotNode} for {@code a*b}, so evaluation is a call
+ * of {@code execute} on the root, without a dispatch on opcodes and without generating any code.
+ * Operations over constants are folded into a {@link ConstNode} when the tree is built.
+ * A pure subtree that reads a few slots only is watched by a {@link ProfilingNode} for its first executions:
+ * when the slots kept their values all along, it rewrites itself into a {@link GuardedConstNode}, that returns the
+ * remembered value while the slots still have the same values, and rewrites itself back into the subtree once they do not.
+ * A node rewrites itself by replacing the reference its parent keeps, Java has no way to replace an object in place.
+ * Not thread safe, because of the rewriting and of the buffers of calls, every thread needs its own interpreter.
+ * Every node is a level of recursion, so deep trees should be balanced by {@link maksym.perevalov.tree.TreeOptimizer} first.
+ */
+public final class AstInterpreter {
+    // a profiling node rewrites itself after this many executions
+    static final int PROFILE_EXECUTIONS = 32;
+    // a guard compares every slot the subtree reads, so a subtree of many slots or of a few cheap operations is not guarded
+    static final int MAX_GUARDED_SLOTS = 4;
+    static final int MIN_GUARDED_WEIGHT = 8;
+    // the weight of a call or a power against one of an arithmetic operation
+    private static final int EXPENSIVE_WEIGHT = 8;
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final StackProgram program;
+    private final RootNode root;
+
+    public AstInterpreter(TreeNode root) {
+        this(StackProgram.compile(root));
+    }
+
+    public AstInterpreter(StackProgram program) {
+        this.program = program;
+        this.root = new RootNode(build(program));
+    }
+
+    public StackProgram program() {
+        return program;
+    }
+
+    public double evaluate(Bindings bindings) {
+        if (bindings.program() != program) {
+            throw new IllegalArgumentException("Bindings are made for another program");
+        }
+        return evaluate(bindings.values());
+    }
+
+    /**
+     * @param slots values of the variables by the slots of the program
+     */
+    public double evaluate(double[] slots) {
+        return root.execute(slots);
+    }
+
+    /**
+     * The current nodes, as they have been rewritten so far.
+     */
+    @Override
+    public String toString() {
+        return root.child.toString();
+    }
+
+    private static Node build(StackProgram program) {
+        var operands = new Built[Math.max(1, program.maxStackSize())];
+        var constants = program.constants();
+        int top = 0;
+        for (int i = 0; i < program.size(); i++) {
+            int operand = program.operand(i);
+            switch (program.opcode(i)) {
+                case CONSTANT -> operands[top++] = new Built(new ConstNode(constants[operand]), NO_SLOTS, true, 1);
+                case VARIABLE -> operands[top++] = new Built(new SlotNode(operand), new int[]{operand}, true, 1);
+                case NEGATED_VARIABLE -> operands[top++] = new Built(new NegSlotNode(operand), new int[]{operand}, true, 1);
+                case ADD, SUBTRACT, MULTIPLY, DIVIDE, POWER -> {
+                    var right = operands[--top];
+                    var left = operands[top - 1];
+                    var reads = union(left.reads, right.reads);
+                    boolean pure = left.pure && right.pure;
+                    boolean guarded = pure && reads != null;
+                    var node = binary(program.opcode(i), left.node(guarded), right.node(guarded));
+                    int weight = (program.opcode(i) == POWER ? EXPENSIVE_WEIGHT : 1) + left.weight + right.weight;
+                    operands[top - 1] = new Built(node, reads, pure, node instanceof ConstNode ? 1 : weight);
+                }
+                case CALL -> {
+                    var call = program.call(operand);
+                    top -= call.arguments();
+                    var reads = NO_SLOTS;
+                    boolean pure = call.function().pure();
+                    int weight = EXPENSIVE_WEIGHT;
+                    for (int k = top; k < top + call.arguments(); k++) {
+                        reads = union(reads, operands[k].reads);
+                        pure &= operands[k].pure;
+                        weight += operands[k].weight;
+                    }
+                    var arguments = new Node[call.arguments()];
+                    for (int k = 0; k < arguments.length; k++) {
+                        arguments[k] = operands[top + k].node(pure && reads != null);
+                    }
+                    operands[top++] = new Built(call(call, arguments), reads, pure, weight);
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + program.opcode(i));
+            }
+        }
+        return operands[0].node(false);
+    }
+
+    /**
+     * The most specialized node of the operation, a constant is moved to the right of an addition or a multiplication,
+     * that gives the same value either way and has no effects to reorder.
+     */
+    private static Node binary(int opcode, Node left, Node right) {
+        if (left instanceof ConstNode l && right instanceof ConstNode r) {
+            return new ConstNode(apply(opcode, l.value, r.value));
+        }
+        if ((opcode == ADD || opcode == MULTIPLY) && left instanceof ConstNode) {
+            var constant = left;
+            left = right;
+            right = constant;
+        }
+        return switch (opcode) {
+            case ADD -> {
+                if (left instanceof SlotNode l && right instanceof SlotNode r) yield new AddSlotSlotNode(l.slot, r.slot);
+                if (left instanceof SlotNode l && right instanceof ConstNode r) yield new AddSlotConstNode(l.slot, r.value);
+                if (right instanceof ConstNode r) yield new AddConstNode(left, r.value);
+                yield new AddNode(left, right);
+            }
+            case SUBTRACT -> {
+                if (left instanceof SlotNode l && right instanceof SlotNode r) yield new SubSlotSlotNode(l.slot, r.slot);
+                if (right instanceof ConstNode r) yield new SubConstNode(left, r.value);
+                yield new SubNode(left, right);
+            }
+            case MULTIPLY -> {
+                if (left instanceof SlotNode l && right instanceof SlotNode r) yield new MulSlotSlotNode(l.slot, r.slot);
+                if (left instanceof SlotNode l && right instanceof ConstNode r) yield new MulSlotConstNode(l.slot, r.value);
+                if (right instanceof ConstNode r) yield new MulConstNode(left, r.value);
+                yield new MulNode(left, right);
+            }
+            case DIVIDE -> left instanceof SlotNode l && right instanceof SlotNode r
+                  ? new DivSlotSlotNode(l.slot, r.slot)
+                  : new DivNode(left, right);
+            // the power computes 2 by squaring, which is the same single multiplication
+            case POWER -> right instanceof ConstNode r && r.value == 2 ? new SquareNode(left) : new PowNode(left, right);
+            default -> throw new IllegalStateException("Unknown opcode " + opcode);
+        };
+    }
+
+    private static double apply(int opcode, double left, double right) {
+        return switch (opcode) {
+            case ADD -> left + right;
+            case SUBTRACT -> left - right;
+            case MULTIPLY -> left * right;
+            case DIVIDE -> left / right;
+            case POWER -> MathElement.Power.apply(left, right);
+            default -> throw new IllegalStateException("Unknown opcode " + opcode);
+        };
+    }
+
+    /**
+     * A unary or binary kernel is called directly, any other function through the buffer of the node.
+     */
+    private static Node call(Call call, Node[] arguments) {
+        return switch (call.function().kernel()) {
+            case NativeFunction.Unary unary when arguments.length == 1 ->
+                  new UnaryCallNode(call.function().name(), unary.operator(), arguments[0]);
+            case NativeFunction.Binary binary when arguments.length == 2 ->
+                  new BinaryCallNode(call.function().name(), binary.operator(), arguments[0], arguments[1]);
+            default -> new CallNode(call.function(), arguments);
+        };
+    }
+
+    /**
+     * The sorted slots that both read, or null when there are more than a guard may compare.
+     */
+    private static int[] union(int[] first, int[] second) {
+        if (first == null || second == null) {
+            return null;
+        }
+        var slots = new int[first.length + second.length];
+        int count = 0;
+        for (int i = 0, j = 0; i < first.length || j < second.length; ) {
+            int slot;
+            if (j == second.length || i < first.length && first[i] < second[j]) {
+                slot = first[i++];
+            } else if (i == first.length || second[j] < first[i]) {
+                slot = second[j++];
+            } else {
+                slot = first[i++];
+                j++;
+            }
+            slots[count++] = slot;
+        }
+        return count > MAX_GUARDED_SLOTS ? null : Arrays.copyOf(slots, count);
+    }
+
+    private static boolean matches(double[] frame, int[] slots, long[] bits) {
+        for (int i = 0; i < slots.length; i++) {
+            if (Double.doubleToRawLongBits(frame[slots[i]]) != bits[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A node under construction with what the builder knows of its subtree.
+     *
+     * @param reads the slots the subtree reads, or null when there are too many to guard
+     * @param pure  whether the subtree calls only pure functions
+     */
+    private record Built(Node node, int[] reads, boolean pure, int weight) {
+
+        /**
+         * The node to put under a parent, a subtree that may be guarded is profiled when its parent may not be.
+         */
+        Node node(boolean parentGuarded) {
+            if (parentGuarded || !pure || reads == null || reads.length == 0 || weight < MIN_GUARDED_WEIGHT) {
+                return node;
+            }
+            return new ProfilingNode(node, reads);
+        }
+    }
+
+    abstract static class Node {
+        Node parent;
+
+        abstract double execute(double[] frame);
+
+        /**
+         * Called by the child that rewrites itself, a node without children has nothing to replace.
+         */
+        void replaceChild(Node child, Node replacement) {
+            throw new IllegalStateException(getClass().getSimpleName() + " has no children");
+        }
+
+        final Node adopt(Node child) {
+            child.parent = this;
+            return child;
+        }
+
+        final void replace(Node replacement) {
+            replacement.parent = parent;
+            parent.replaceChild(this, replacement);
+        }
+    }
+
+    abstract static class BinaryNode extends Node {
+        Node left;
+        Node right;
+
+        BinaryNode(Node left, Node right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        final void replaceChild(Node child, Node replacement) {
+            if (left == child) {
+                left = replacement;
+            } else if (right == child) {
+                right = replacement;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "%s(%s, %s)".formatted(getClass().getSimpleName(), left, right);
+        }
+    }
+
+    abstract static class UnaryNode extends Node {
+        Node child;
+
+        UnaryNode(Node child) {
+            this.child = adopt(child);
+        }
+
+        @Override
+        final void replaceChild(Node child, Node replacement) {
+            if (this.child == child) {
+                this.child = replacement;
+            }
+        }
+    }
+
+    static final class RootNode extends UnaryNode {
+        RootNode(Node body) {
+            super(body);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return child.execute(frame);
+        }
+    }
+
+    static final class ConstNode extends Node {
+        final double value;
+
+        ConstNode(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "ConstNode(" + value + ")";
+        }
+    }
+
+    static final class SlotNode extends Node {
+        final int slot;
+
+        SlotNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[slot];
+        }
+
+        @Override
+        public String toString() {
+            return "SlotNode(" + slot + ")";
+        }
+    }
+
+    static final class NegSlotNode extends Node {
+        final int slot;
+
+        NegSlotNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return -frame[slot];
+        }
+
+        @Override
+        public String toString() {
+            return "NegSlotNode(" + slot + ")";
+        }
+    }
+
+    static final class AddNode extends BinaryNode {
+        AddNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return left.execute(frame) + right.execute(frame);
+        }
+    }
+
+    static final class SubNode extends BinaryNode {
+        SubNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return left.execute(frame) - right.execute(frame);
+        }
+    }
+
+    static final class MulNode extends BinaryNode {
+        MulNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return left.execute(frame) * right.execute(frame);
+        }
+    }
+
+    static final class DivNode extends BinaryNode {
+        DivNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return left.execute(frame) / right.execute(frame);
+        }
+    }
+
+    static final class PowNode extends BinaryNode {
+        PowNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return MathElement.Power.apply(left.execute(frame), right.execute(frame));
+        }
+    }
+
+    static final class SquareNode extends UnaryNode {
+        SquareNode(Node child) {
+            super(child);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            double value = child.execute(frame);
+            return value * value;
+        }
+
+        @Override
+        public String toString() {
+            return "SquareNode(" + child + ")";
+        }
+    }
+
+    static final class AddConstNode extends UnaryNode {
+        final double constant;
+
+        AddConstNode(Node child, double constant) {
+            super(child);
+            this.constant = constant;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return child.execute(frame) + constant;
+        }
+
+        @Override
+        public String toString() {
+            return "AddConstNode(%s, %s)".formatted(child, constant);
+        }
+    }
+
+    static final class SubConstNode extends UnaryNode {
+        final double constant;
+
+        SubConstNode(Node child, double constant) {
+            super(child);
+            this.constant = constant;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return child.execute(frame) - constant;
+        }
+
+        @Override
+        public String toString() {
+            return "SubConstNode(%s, %s)".formatted(child, constant);
+        }
+    }
+
+    static final class MulConstNode extends UnaryNode {
+        final double constant;
+
+        MulConstNode(Node child, double constant) {
+            super(child);
+            this.constant = constant;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return child.execute(frame) * constant;
+        }
+
+        @Override
+        public String toString() {
+            return "MulConstNode(%s, %s)".formatted(child, constant);
+        }
+    }
+
+    static final class AddSlotConstNode extends Node {
+        final int slot;
+        final double constant;
+
+        AddSlotConstNode(int slot, double constant) {
+            this.slot = slot;
+            this.constant = constant;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[slot] + constant;
+        }
+
+        @Override
+        public String toString() {
+            return "AddSlotConstNode(%s, %s)".formatted(slot, constant);
+        }
+    }
+
+    static final class MulSlotConstNode extends Node {
+        final int slot;
+        final double constant;
+
+        MulSlotConstNode(int slot, double constant) {
+            this.slot = slot;
+            this.constant = constant;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[slot] * constant;
+        }
+
+        @Override
+        public String toString() {
+            return "MulSlotConstNode(%s, %s)".formatted(slot, constant);
+        }
+    }
+
+    abstract static class SlotSlotNode extends Node {
+        final int left;
+        final int right;
+
+        SlotSlotNode(int left, int right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public String toString() {
+            return "%s(%s, %s)".formatted(getClass().getSimpleName(), left, right);
+        }
+    }
+
+    static final class AddSlotSlotNode extends SlotSlotNode {
+        AddSlotSlotNode(int left, int right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[left] + frame[right];
+        }
+    }
+
+    static final class SubSlotSlotNode extends SlotSlotNode {
+        SubSlotSlotNode(int left, int right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[left] - frame[right];
+        }
+    }
+
+    static final class MulSlotSlotNode extends SlotSlotNode {
+        MulSlotSlotNode(int left, int right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[left] * frame[right];
+        }
+    }
+
+    static final class DivSlotSlotNode extends SlotSlotNode {
+        DivSlotSlotNode(int left, int right) {
+            super(left, right);
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return frame[left] / frame[right];
+        }
+    }
+
+    static final class UnaryCallNode extends UnaryNode {
+        final String name;
+        final DoubleUnaryOperator operator;
+
+        UnaryCallNode(String name, DoubleUnaryOperator operator, Node argument) {
+            super(argument);
+            this.name = name;
+            this.operator = operator;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return operator.applyAsDouble(child.execute(frame));
+        }
+
+        @Override
+        public String toString() {
+            return "UnaryCallNode[%s](%s)".formatted(name, child);
+        }
+    }
+
+    static final class BinaryCallNode extends BinaryNode {
+        final String name;
+        final DoubleBinaryOperator operator;
+
+        BinaryCallNode(String name, DoubleBinaryOperator operator, Node left, Node right) {
+            super(left, right);
+            this.name = name;
+            this.operator = operator;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            return operator.applyAsDouble(left.execute(frame), right.execute(frame));
+        }
+
+        @Override
+        public String toString() {
+            return "BinaryCallNode[%s](%s, %s)".formatted(name, left, right);
+        }
+    }
+
+    static final class CallNode extends Node {
+        final NativeFunction function;
+        final Node[] arguments;
+        final double[] values;
+
+        CallNode(NativeFunction function, Node[] arguments) {
+            this.function = function;
+            this.arguments = arguments;
+            this.values = new double[arguments.length];
+            for (var argument : arguments) {
+                adopt(argument);
+            }
+        }
+
+        @Override
+        double execute(double[] frame) {
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].execute(frame);
+            }
+            return function.apply(values, 0, values.length);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == child) {
+                    arguments[i] = replacement;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "CallNode[%s](%s)".formatted(function.name(),
+                  String.join(", ", Arrays.stream(arguments).map(Node::toString).toList()));
+        }
+    }
+
+    /**
+     * Executes a pure subtree and watches the slots it reads, to speculate that they keep their values.
+     */
+    static final class ProfilingNode extends UnaryNode {
+        final int[] slots;
+        final long[] bits;
+        int executions;
+
+        ProfilingNode(Node child, int[] slots) {
+            super(child);
+            this.slots = slots;
+            this.bits = new long[slots.length];
+        }
+
+        @Override
+        double execute(double[] frame) {
+            double value = child.execute(frame);
+            if (executions++ == 0) {
+                for (int i = 0; i < slots.length; i++) {
+                    bits[i] = Double.doubleToRawLongBits(frame[slots[i]]);
+                }
+            } else if (!matches(frame, slots, bits)) {
+                replace(child);
+                return value;
+            }
+            if (executions == PROFILE_EXECUTIONS) {
+                replace(new GuardedConstNode(child, slots, bits, value));
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "ProfilingNode(" + child + ")";
+        }
+    }
+
+    /**
+     * The value of a pure subtree for the slots it was computed with, the subtree takes its place back
+     * on the first execution with other values and is never profiled again.
+     */
+    static final class GuardedConstNode extends UnaryNode {
+        final int[] slots;
+        final long[] bits;
+        final double value;
+
+        GuardedConstNode(Node subtree, int[] slots, long[] bits, double value) {
+            super(subtree);
+            this.slots = slots;
+            this.bits = bits;
+            this.value = value;
+        }
+
+        @Override
+        double execute(double[] frame) {
+            if (matches(frame, slots, bits)) {
+                return value;
+            }
+            replace(child);
+            return child.execute(frame);
+        }
+
+        @Override
+        public String toString() {
+            return "GuardedConstNode(" + value + ")";
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package maksym.perevalov.eval;
+
+import static maksym.perevalov.eval.StackProgram.*;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluation of one program over many rows, with a column of values per variable slot and a column of results.
+ * Rows are taken in blocks and the program runs an instruction at a time over a whole block, so every operator is one
+ * loop over a few kilobytes, that the {@link ColumnKernels} vectorize. A block is sized so the stack of block columns of a program
+ * stays in the caches, and a variable is read straight from its input column.
+ * An evaluator may be shared by threads, every evaluation has its own block columns.
+ */
+public final class BatchEvaluator {
+    public static final int BLOCK_SIZE = 1024;
+    private static final int PARALLEL_THRESHOLD = 16 * BLOCK_SIZE;
+
+    private final StackProgram program;
+    private final int[] code;
+    private final double[] constants;
+    private final ColumnKernels kernels;
+
+    public BatchEvaluator(StackProgram program) {
+        this(program, ColumnKernels.best());
+    }
+
+    private BatchEvaluator(StackProgram program, ColumnKernels kernels) {
+        this.program = program;
+        this.code = program.code();
+        this.constants = program.constants();
+        this.kernels = kernels;
+    }
+
+    /**
+     * The same evaluation with plain loops, as done when the vector module is missing.
+     */
+    public static BatchEvaluator scalar(StackProgram program) {
+        return new BatchEvaluator(program, new ColumnKernels.ScalarKernels());
+    }
+
+    public boolean isVectorized() {
+        return kernels.isVectorized();
+    }
+
+    /**
+     * Columns by the slots of the program, a variable that has no column is 0 in every row.
+     */
+    public double[][] columns(Map<String, double[]> columnsByName, int rows) {
+        var columns = new double[program.slotCount()][];
+        for (int slot = 0; slot < columns.length; slot++) {
+            var column = columnsByName.get(program.variables().get(slot));
+            columns[slot] = column == null ? new double[rows] : column;
+        }
+        return columns;
+    }
+
+    /**
+     * @param columns a column of values for every slot of the program, at least as long as the result
+     */
+    public void evaluate(double[][] columns, double[] result) {
+        checkColumns(columns, result.length);
+        evaluate(columns, result, 0, result.length, new Block(program.maxStackSize()));
+    }
+
+    /**
+     * Splits rows across the pool, each task evaluates whole blocks.
+     */
+    public void evaluate(double[][] columns, double[] result, ForkJoinPool pool) {
+        checkColumns(columns, result.length);
+        pool.invoke(new EvaluateTask(columns, result, 0, result.length));
+    }
+
+    private void checkColumns(double[][] columns, int rows) {
+        if (columns.length < program.slotCount()) {
+            throw new IllegalArgumentException("Expected %s columns, but got %s".formatted(program.slotCount(), columns.length));
+        }
+        for (int slot = 0; slot < program.slotCount(); slot++) {
+            if (columns[slot].length < rows) {
+                throw new IllegalArgumentException("Column of %s has %s rows, but %s are expected"
+                      .formatted(program.variables().get(slot), columns[slot].length, rows));
+            }
+        }
+    }
+
+    private void evaluate(double[][] columns, double[] result, int from, int to, Block block) {
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - start);
+            int top = 0;
+            for (int instruction : code) {
+                int operand = instruction >>> OPCODE_BITS;
+                int opcode = instruction & OPCODE_MASK;
+                switch (opcode) {
+                    case CONSTANT -> {
+                        kernels.fill(block.buffers[top], length, constants[operand]);
+                        block.use(top, block.buffers[top++], 0);
+                    }
+                    case VARIABLE -> block.use(top++, columns[operand], start);
+                    case NEGATED_VARIABLE -> {
+                        kernels.negate(columns[operand], start, block.buffers[top], length);
+                        block.use(top, block.buffers[top++], 0);
+                    }
+                    case CALL -> {
+                        var call = program.call(operand);
+                        top -= call.arguments();
+                        kernels.call(call, block.columns, block.offsets, top, block.buffers[top], length);
+                        block.use(top, block.buffers[top++], 0);
+                    }
+                    default -> {
+                        top--;
+                        kernels.apply(opcode, block.columns[top - 1], block.offsets[top - 1], block.columns[top], block.offsets[top],
+                              block.buffers[top - 1], length);
+                        block.use(top - 1, block.buffers[top - 1], 0);
+                    }
+                }
+            }
+            System.arraycopy(block.columns[0], block.offsets[0], result, start, length);
+        }
+    }
+
+    /**
+     * Columns of the stack of one block: a value on the stack is a slice of an input column or of the buffer of its stack position.
+     */
+    private static final class Block {
+        final double[][] buffers;
+        final double[][] columns;
+        final int[] offsets;
+
+        Block(int stackSize) {
+            stackSize = Math.max(1, stackSize);
+            buffers = new double[stackSize][BLOCK_SIZE];
+            columns = new double[stackSize][];
+            offsets = new int[stackSize];
+        }
+
+        void use(int position, double[] column, int offset) {
+            columns[position] = column;
+            offsets[position] = offset;
+        }
+    }
+
+    private final class EvaluateTask extends RecursiveAction {
+        private final double[][] columns;
+        private final double[] result;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(double[][] columns, double[] result, int from, int to) {
+            this.columns = columns;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                evaluate(columns, result, from, to, new Block(program.maxStackSize()));
+                return;
+            }
+            // split on a block boundary, so no block is shared
+            int middle = from + (to - from) / BLOCK_SIZE / 2 * BLOCK_SIZE;
+            invokeAll(new EvaluateTask(columns, result, from, middle), new EvaluateTask(columns, result, middle, to));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package maksym.perevalov.eval;
+
+import java.util.Map;
+
+/**
+ * Values of the variable slots of one {@link StackProgram}, meant to be filled again and reused for every evaluation.
+ * Setting by name resolves the slot on each call, so a hot loop should resolve slots once with {@link StackProgram#slot(String)}
+ * and set by slot. A variable the program does not read is ignored, so the same values can be bound to many programs.
+ */
+public final class Bindings {
+    private final StackProgram program;
+    private final double[] values;
+
+    Bindings(StackProgram program, double[] values) {
+        this.program = program;
+        this.values = values;
+    }
+
+    /**
+     * Sets a negated name such as "-a" as the negated value of "a".
+     */
+    public Bindings set(String variable, double value) {
+        int slot = program.slot(variable);
+        if (slot >= 0) {
+            values[slot] = StackProgram.isNegated(variable) ? -value : value;
+        }
+        return this;
+    }
+
+    public Bindings set(int slot, double value) {
+        values[slot] = value;
+        return this;
+    }
+
+    public Bindings setAll(Map<String, Double> variables) {
+        variables.forEach(this::set);
+        return this;
+    }
+
+    public double get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * The array the values are kept in, not a copy.
+     */
+    public double[] values() {
+        return values;
+    }
+
+    StackProgram program() {
+        return program;
+    }
+}
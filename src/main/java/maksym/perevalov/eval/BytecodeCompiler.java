@@ -0,0 +1,585 @@
+package maksym.perevalov.eval;
+
+import static maksym.perevalov.eval.StackProgram.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import maksym.perevalov.tree.NativeFunction;
+import maksym.perevalov.tree.NativeFunction.Intrinsic;
+import maksym.perevalov.tree.TreeNode;
+
+/**
+ * Generates a class with the method {@code double evaluate(double[] slots)} from a {@link StackProgram} and defines it
+ * as a hidden class, so the JIT compiles a formula as plain arithmetic on locals and the operand stack.
+ * The program is straight-line code without branches, so the class file needs no stack map frames.
+ * HotSpot does not JIT-compile methods longer than 8000 bytes, so a large subtree is moved into its own static method,
+ * the evaluation of a big formula is a tree of calls, where every method is short enough to be compiled.
+ * A call of an intrinsic function is a call of its {@link Math} method, that the JIT replaces with an instruction where it can,
+ * any other function is called through a static bridge method, that reads it from the class data of the hidden class.
+ */
+public final class BytecodeCompiler {
+    static final int METHOD_SIZE_LIMIT = 8000;
+    private static final String CLASS_NAME = "maksym/perevalov/eval/GeneratedFormula";
+    private static final String FORMULA_NAME = "maksym/perevalov/eval/CompiledExpression$Formula";
+    private static final String EVALUATE_DESCRIPTOR = "([D)D";
+    private static final String POWER_NAME = "maksym/perevalov/tree/MathElement$Power";
+    private static final String FUNCTIONS_FIELD = "FUNCTIONS";
+    private static final String NATIVE_FUNCTION_NAME = "maksym/perevalov/tree/NativeFunction";
+    private static final String FUNCTIONS_DESCRIPTOR = "[L" + NATIVE_FUNCTION_NAME + ";";
+    private static final int CALL_SIZE = 4;
+    private static final int NONE = -1;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int DLOAD_0 = 0x26;
+    private static final int DLOAD_2 = 0x28;
+    private static final int DALOAD = 0x31;
+    private static final int AALOAD = 0x32;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int PUTSTATIC = 0xb3;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int CHECKCAST = 0xc0;
+
+    private final StackProgram program;
+    private final int[] code;
+    private final double[] constants;
+    private final ConstantPool pool = new ConstantPool();
+    // per instruction: the left operand, the size in bytes and the operand stack depth of its subtree, and its method
+    private final int[] lefts;
+    private final int[] sizes;
+    private final int[] depths;
+    private final int[] methods;
+    private final List<Integer> outlined = new ArrayList<>();
+
+    private BytecodeCompiler(StackProgram program) {
+        this.program = program;
+        this.code = program.code();
+        this.constants = program.constants();
+        this.lefts = new int[code.length];
+        this.sizes = new int[code.length];
+        this.depths = new int[code.length];
+        this.methods = new int[code.length];
+        Arrays.fill(methods, -1);
+    }
+
+    public static CompiledExpression compile(TreeNode root) {
+        return compile(StackProgram.compile(root));
+    }
+
+    public static CompiledExpression compile(StackProgram program) {
+        var compiler = new BytecodeCompiler(program);
+        var bytes = compiler.generate();
+        try {
+            // no ClassOption.STRONG, so the class is unloaded once the expression is unreachable
+            var lookup = compiler.hasBridges()
+                  ? MethodHandles.lookup().defineHiddenClassWithClassData(bytes, compiler.functions(), true)
+                  : MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var formula = (CompiledExpression.Formula) lookup.lookupClass().getDeclaredConstructor().newInstance();
+            return new CompiledExpression(program, formula);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated class can not be loaded", e);
+        }
+    }
+
+    /**
+     * Whether a call goes to a function that is not an intrinsic, so the class needs the functions as its class data.
+     */
+    private boolean hasBridges() {
+        for (int i = 0; i < program.callCount(); i++) {
+            if (program.call(i).function().intrinsic() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private NativeFunction[] functions() {
+        var functions = new NativeFunction[program.callCount()];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = program.call(i).function();
+        }
+        return functions;
+    }
+
+    private byte[] generate() {
+        int root = split();
+        var evaluate = emit(root, 1);
+        var bodies = new ArrayList<byte[]>();
+        for (int index : outlined) {
+            bodies.add(emit(index, 0));
+        }
+        boolean hasBridges = hasBridges();
+        var bridges = new ArrayList<Integer>();
+        for (int i = 0; hasBridges && i < program.callCount(); i++) {
+            if (program.call(i).function().intrinsic() == null) {
+                bridges.add(i);
+            }
+        }
+        var constructor = new Body(5);
+        constructor.add(ALOAD_0);
+        constructor.add(INVOKESPECIAL);
+        constructor.addShort(pool.method("java/lang/Object", "<init>", "()V"));
+        constructor.add(RETURN);
+
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            int thisClass = pool.type(CLASS_NAME);
+            int superClass = pool.type("java/lang/Object");
+            int formula = pool.type(FORMULA_NAME);
+            int codeName = pool.utf8("Code");
+            var methodInfos = new ByteArrayOutputStream();
+            try (var methodOut = new DataOutputStream(methodInfos)) {
+                writeMethod(methodOut, 0x0001, pool.utf8("<init>"), pool.utf8("()V"), codeName, 1, 1, constructor.toByteArray());
+                writeMethod(methodOut, 0x0001, pool.utf8("evaluate"), pool.utf8(EVALUATE_DESCRIPTOR), codeName,
+                      2 * depths[root], 2, evaluate);
+                for (int i = 0; i < outlined.size(); i++) {
+                    writeMethod(methodOut, 0x000a, pool.utf8(methodName(i)), pool.utf8(EVALUATE_DESCRIPTOR), codeName,
+                          2 * depths[outlined.get(i)], 1, bodies.get(i));
+                }
+                for (int call : bridges) {
+                    int arguments = program.call(call).arguments();
+                    writeMethod(methodOut, 0x000a, pool.utf8(bridgeName(call)), pool.utf8(callDescriptor(arguments)), codeName,
+                          6, 2 * arguments, bridge(call));
+                }
+                if (hasBridges) {
+                    writeMethod(methodOut, 0x0008, pool.utf8("<clinit>"), pool.utf8("()V"), codeName, 3, 0, classInitializer());
+                }
+            }
+            int fieldName = hasBridges ? pool.utf8(FUNCTIONS_FIELD) : 0;
+            int fieldDescriptor = hasBridges ? pool.utf8(FUNCTIONS_DESCRIPTOR) : 0;
+            if (pool.count() > 0xffff) {
+                throw new IllegalArgumentException("Expression is too large to compile, constant pool has %s entries".formatted(pool.count()));
+            }
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(65);
+            pool.write(out);
+            out.writeShort(0x0030);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(formula);
+            if (hasBridges) {
+                out.writeShort(1);
+                out.writeShort(0x001a);
+                out.writeShort(fieldName);
+                out.writeShort(fieldDescriptor);
+                out.writeShort(0);
+            } else {
+                out.writeShort(0);
+            }
+            out.writeShort(2 + outlined.size() + bridges.size() + (hasBridges ? 1 : 0));
+            methodInfos.writeTo(out);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName,
+          int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private static String methodName(int method) {
+        return "part" + method;
+    }
+
+    /**
+     * Sizes every subtree bottom-up and moves the larger operand into its own method whenever an operation
+     * would not fit into a method, so every method, including the returned root, stays within the limit.
+     */
+    private int split() {
+        var operands = new int[Math.max(1, program.maxStackSize())];
+        int top = 0;
+        for (int i = 0; i < code.length; i++) {
+            int opcode = code[i] & OPCODE_MASK;
+            int operand = code[i] >>> OPCODE_BITS;
+            if (opcode == CONSTANT || opcode == VARIABLE || opcode == NEGATED_VARIABLE) {
+                sizes[i] = leafSize(opcode, operand);
+                depths[i] = 1;
+                operands[top++] = i;
+                continue;
+            }
+            int arguments = opcode == CALL ? arguments(program.call(operand)) : 2;
+            int second = arguments > 1 ? operands[--top] : NONE;
+            int first = arguments > 0 ? operands[--top] : NONE;
+            int operationSize = switch (opcode) {
+                case CALL -> callSize(program.call(operand));
+                case POWER -> 3;
+                default -> 1;
+            };
+            while (size(first) + size(second) + operationSize + 1 > METHOD_SIZE_LIMIT) {
+                outline(size(first) >= size(second) ? first : second);
+            }
+            lefts[i] = first;
+            sizes[i] = size(first) + size(second) + operationSize;
+            depths[i] = Math.max(depth(first), depth(second) + 1);
+            operands[top++] = i;
+        }
+        return operands[0];
+    }
+
+    /**
+     * A call node of a tree has at most two arguments, a program of longer calls is not compiled.
+     */
+    private static int arguments(Call call) {
+        if (call.arguments() > 2) {
+            throw new IllegalArgumentException("Calls of more than two arguments are not compiled, '%s' has %s"
+                  .formatted(call.function().name(), call.arguments()));
+        }
+        return call.arguments();
+    }
+
+    private static int callSize(Call call) {
+        var intrinsic = call.function().intrinsic();
+        if ((intrinsic == Intrinsic.MIN || intrinsic == Intrinsic.MAX) && call.arguments() < 2) {
+            return call.arguments() == 0 ? 3 : 0;
+        }
+        return 3;
+    }
+
+    private void outline(int index) {
+        methods[index] = outlined.size();
+        outlined.add(index);
+    }
+
+    private int size(int index) {
+        if (index == NONE) return 0;
+        return methods[index] >= 0 ? CALL_SIZE : sizes[index];
+    }
+
+    private int depth(int index) {
+        if (index == NONE) return 0;
+        return methods[index] >= 0 ? 1 : depths[index];
+    }
+
+    private int leafSize(int opcode, int operand) {
+        if (opcode == CONSTANT) {
+            double value = constants[operand];
+            return Double.doubleToRawLongBits(value) == 0 || value == 1.0 ? 1 : 3;
+        }
+        int index = operand <= 5 ? 1 : operand <= Byte.MAX_VALUE ? 2 : 3;
+        return 1 + index + 1 + (opcode == NEGATED_VARIABLE ? 1 : 0);
+    }
+
+    /**
+     * Body of the method of a subtree in post-order, calling the methods of outlined subtrees inside it.
+     */
+    private byte[] emit(int root, int slotsLocal) {
+        var body = new Body(sizes[root] + 1);
+        var stack = new int[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int entry = stack[--top];
+            int index = entry & Integer.MAX_VALUE;
+            int opcode = code[index] & OPCODE_MASK;
+            int operand = code[index] >>> OPCODE_BITS;
+            if (index != root && methods[index] >= 0) {
+                body.add(ALOAD_0 + slotsLocal);
+                body.add(INVOKESTATIC);
+                body.addShort(pool.method(CLASS_NAME, methodName(methods[index]), EVALUATE_DESCRIPTOR));
+                continue;
+            }
+            switch (opcode) {
+                case CONSTANT -> constant(body, constants[operand]);
+                case VARIABLE -> variable(body, slotsLocal, operand);
+                case NEGATED_VARIABLE -> {
+                    variable(body, slotsLocal, operand);
+                    body.add(DNEG);
+                }
+                default -> {
+                    if (entry < 0) {
+                        switch (opcode) {
+                            case ADD -> body.add(DADD);
+                            case SUBTRACT -> body.add(DSUB);
+                            case MULTIPLY -> body.add(DMUL);
+                            case DIVIDE -> body.add(DDIV);
+                            case POWER -> {
+                                body.add(INVOKESTATIC);
+                                body.addShort(pool.method(POWER_NAME, "apply", "(DD)D"));
+                            }
+                            case CALL -> call(body, operand);
+                            default -> throw new IllegalStateException("Unknown opcode " + opcode);
+                        }
+                        continue;
+                    }
+                    int arguments = opcode == CALL ? program.call(operand).arguments() : 2;
+                    if (top + 3 > stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = index | Integer.MIN_VALUE;
+                    if (arguments > 1) {
+                        stack[top++] = index - 1;
+                    }
+                    if (arguments > 0) {
+                        stack[top++] = lefts[index];
+                    }
+                }
+            }
+        }
+        body.add(DRETURN);
+        return body.toByteArray();
+    }
+
+    /**
+     * An intrinsic is the {@link Math} method, other functions are called by the bridge method of the call.
+     */
+    private void call(Body body, int operand) {
+        var call = program.call(operand);
+        var intrinsic = call.function().intrinsic();
+        if (intrinsic == null) {
+            body.add(INVOKESTATIC);
+            body.addShort(pool.method(CLASS_NAME, bridgeName(operand), callDescriptor(call.arguments())));
+            return;
+        }
+        if ((intrinsic == Intrinsic.MIN || intrinsic == Intrinsic.MAX) && call.arguments() < 2) {
+            if (call.arguments() == 0) {
+                constant(body, intrinsic == Intrinsic.MIN ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+            }
+            return;
+        }
+        body.add(INVOKESTATIC);
+        body.addShort(pool.method("java/lang/Math", intrinsic.methodName(), callDescriptor(call.arguments())));
+    }
+
+    private static String callDescriptor(int arguments) {
+        return "(" + "D".repeat(arguments) + ")D";
+    }
+
+    private static String bridgeName(int call) {
+        return "call" + call;
+    }
+
+    /**
+     * Passes the arguments to the function of the call, which is read from the class data.
+     */
+    private byte[] bridge(int operand) {
+        int arguments = program.call(operand).arguments();
+        var body = new Body(16);
+        body.add(GETSTATIC);
+        body.addShort(pool.field(CLASS_NAME, FUNCTIONS_FIELD, FUNCTIONS_DESCRIPTOR));
+        pushInt(body, operand);
+        body.add(AALOAD);
+        body.add(ICONST_0 + arguments);
+        body.add(arguments > 0 ? DLOAD_0 : DCONST_0);
+        body.add(arguments > 1 ? DLOAD_2 : DCONST_0);
+        body.add(INVOKEVIRTUAL);
+        body.addShort(pool.method(NATIVE_FUNCTION_NAME, "apply", "(IDD)D"));
+        body.add(DRETURN);
+        return body.toByteArray();
+    }
+
+    /**
+     * Reads the functions of the calls from the class data of the hidden class into a static final field.
+     */
+    private byte[] classInitializer() {
+        var body = new Body(20);
+        body.add(INVOKESTATIC);
+        body.addShort(pool.method("java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+        body.add(LDC_W);
+        body.addShort(pool.string(ConstantDescs.DEFAULT_NAME));
+        body.add(LDC_W);
+        body.addShort(pool.type(FUNCTIONS_DESCRIPTOR));
+        body.add(INVOKESTATIC);
+        body.addShort(pool.method("java/lang/invoke/MethodHandles", "classData",
+              "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;"));
+        body.add(CHECKCAST);
+        body.addShort(pool.type(FUNCTIONS_DESCRIPTOR));
+        body.add(PUTSTATIC);
+        body.addShort(pool.field(CLASS_NAME, FUNCTIONS_FIELD, FUNCTIONS_DESCRIPTOR));
+        body.add(RETURN);
+        return body.toByteArray();
+    }
+
+    private void constant(Body body, double value) {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            body.add(DCONST_0);
+        } else if (value == 1.0) {
+            body.add(DCONST_1);
+        } else {
+            body.add(LDC2_W);
+            body.addShort(pool.doubleValue(value));
+        }
+    }
+
+    private void variable(Body body, int slotsLocal, int slot) {
+        body.add(ALOAD_0 + slotsLocal);
+        pushInt(body, slot);
+        body.add(DALOAD);
+    }
+
+    private void pushInt(Body body, int value) {
+        if (value <= 5) {
+            body.add(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            body.add(BIPUSH);
+            body.add(value);
+        } else if (value <= Short.MAX_VALUE) {
+            body.add(SIPUSH);
+            body.addShort(value);
+        } else {
+            body.add(LDC_W);
+            body.addShort(pool.intValue(value));
+        }
+    }
+
+    private static final class Body {
+        private byte[] bytes;
+        private int length;
+
+        Body(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void add(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void addShort(int value) {
+            add(value >> 8);
+            add(value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    /**
+     * Constant pool entries, each added once.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<Object, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry(value, 1, () -> out.writeUTF(value));
+        }
+
+        int type(String name) {
+            int nameIndex = utf8(name);
+            return entry(new Key(7, name), 1, () -> out.writeShort(nameIndex));
+        }
+
+        int method(String owner, String name, String descriptor) {
+            int ownerIndex = type(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry(new Key(12, name + descriptor), 1, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry(new Key(10, owner + '.' + name + descriptor), 1, () -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int string(String value) {
+            int valueIndex = utf8(value);
+            return entry(new Key(8, value), 1, () -> out.writeShort(valueIndex));
+        }
+
+        int field(String owner, String name, String descriptor) {
+            int ownerIndex = type(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry(new Key(12, name + descriptor), 1, () -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry(new Key(9, owner + '.' + name + descriptor), 1, () -> {
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int doubleValue(double value) {
+            return entry(new Key(6, Double.doubleToRawLongBits(value)), 2, () -> out.writeDouble(value));
+        }
+
+        int intValue(int value) {
+            return entry(new Key(3, value), 1, () -> out.writeInt(value));
+        }
+
+        int count() {
+            return count;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+
+        private int entry(Object key, int slots, Writer writer) {
+            var index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(switch (key) {
+                    case String _ -> 1;
+                    case Key k -> k.tag();
+                    default -> throw new IllegalStateException("Unknown constant " + key);
+                });
+                writer.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indexes.put(key, count);
+            count += slots;
+            return count - slots;
+        }
+
+        private record Key(int tag, Object value) {
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
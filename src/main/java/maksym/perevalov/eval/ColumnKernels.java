@@ -0,0 +1,145 @@
+package maksym.perevalov.eval;
+
+import java.util.Arrays;
+
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.NativeFunction;
+
+/**
+ * Element-wise operations over slices of columns, that {@link BatchEvaluator} runs one instruction at a time.
+ * The vector implementation is loaded only when the jdk.incubator.vector module is in the boot layer,
+ * otherwise, or when it can not be loaded, the scalar loops are used.
+ */
+interface ColumnKernels {
+
+    void fill(double[] target, int length, double value);
+
+    void negate(double[] source, int sourceOffset, double[] target, int length);
+
+    /**
+     * @param opcode one of {@link StackProgram#ADD}, {@link StackProgram#SUBTRACT}, {@link StackProgram#MULTIPLY}, {@link StackProgram#DIVIDE}
+     *               or {@link StackProgram#POWER}
+     */
+    void apply(int opcode, double[] left, int leftOffset, double[] right, int rightOffset, double[] target, int length);
+
+    /**
+     * Applies the call to the argument columns {@code columns[first]} and after, each starting at its offset.
+     */
+    void call(StackProgram.Call call, double[][] columns, int[] offsets, int first, double[] target, int length);
+
+    boolean isVectorized();
+
+    static ColumnKernels best() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (ColumnKernels) Class.forName("maksym.perevalov.eval.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarKernels();
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    final class ScalarKernels implements ColumnKernels {
+
+        @Override
+        public void fill(double[] target, int length, double value) {
+            Arrays.fill(target, 0, length, value);
+        }
+
+        @Override
+        public void negate(double[] source, int sourceOffset, double[] target, int length) {
+            for (int i = 0; i < length; i++) {
+                target[i] = -source[sourceOffset + i];
+            }
+        }
+
+        @Override
+        public void apply(int opcode, double[] left, int leftOffset, double[] right, int rightOffset, double[] target, int length) {
+            switch (opcode) {
+                case StackProgram.ADD -> {
+                    for (int i = 0; i < length; i++) target[i] = left[leftOffset + i] + right[rightOffset + i];
+                }
+                case StackProgram.SUBTRACT -> {
+                    for (int i = 0; i < length; i++) target[i] = left[leftOffset + i] - right[rightOffset + i];
+                }
+                case StackProgram.MULTIPLY -> {
+                    for (int i = 0; i < length; i++) target[i] = left[leftOffset + i] * right[rightOffset + i];
+                }
+                case StackProgram.DIVIDE -> {
+                    for (int i = 0; i < length; i++) target[i] = left[leftOffset + i] / right[rightOffset + i];
+                }
+                case StackProgram.POWER -> {
+                    for (int i = 0; i < length; i++) target[i] = MathElement.Power.apply(left[leftOffset + i], right[rightOffset + i]);
+                }
+                default -> throw new IllegalStateException("Not a binary opcode " + opcode);
+            }
+        }
+
+        /**
+         * Intrinsics are loops over the {@link Math} method, other functions are applied row by row.
+         */
+        @Override
+        public void call(StackProgram.Call call, double[][] columns, int[] offsets, int first, double[] target, int length) {
+            var function = call.function();
+            int arguments = call.arguments();
+            var intrinsic = function.intrinsic();
+            if (intrinsic != null && arguments <= 2) {
+                var x = arguments > 0 ? columns[first] : null;
+                int xOffset = arguments > 0 ? offsets[first] : 0;
+                var y = arguments > 1 ? columns[first + 1] : null;
+                int yOffset = arguments > 1 ? offsets[first + 1] : 0;
+                switch (intrinsic) {
+                    case SIN -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.sin(x[xOffset + i]);
+                    }
+                    case COS -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.cos(x[xOffset + i]);
+                    }
+                    case TAN -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.tan(x[xOffset + i]);
+                    }
+                    case SQRT -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.sqrt(x[xOffset + i]);
+                    }
+                    case EXP -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.exp(x[xOffset + i]);
+                    }
+                    case LOG -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.log(x[xOffset + i]);
+                    }
+                    case ABS -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.abs(x[xOffset + i]);
+                    }
+                    case POW -> {
+                        for (int i = 0; i < length; i++) target[i] = Math.pow(x[xOffset + i], y[yOffset + i]);
+                    }
+                    case MIN, MAX -> {
+                        if (arguments == 0) {
+                            fill(target, length, intrinsic == NativeFunction.Intrinsic.MIN ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+                        } else if (arguments == 1) {
+                            System.arraycopy(x, xOffset, target, 0, length);
+                        } else if (intrinsic == NativeFunction.Intrinsic.MIN) {
+                            for (int i = 0; i < length; i++) target[i] = Math.min(x[xOffset + i], y[yOffset + i]);
+                        } else {
+                            for (int i = 0; i < length; i++) target[i] = Math.max(x[xOffset + i], y[yOffset + i]);
+                        }
+                    }
+                }
+                return;
+            }
+            var row = new double[arguments];
+            for (int i = 0; i < length; i++) {
+                for (int argument = 0; argument < arguments; argument++) {
+                    row[argument] = columns[first + argument][offsets[first + argument] + i];
+                }
+                target[i] = function.apply(row, 0, arguments);
+            }
+        }
+
+        @Override
+        public boolean isVectorized() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package maksym.perevalov.eval;
+
+/**
+ * A {@link StackProgram} turned into a method of a hidden class by {@link BytecodeCompiler},
+ * or into a method handle by {@link MethodHandleCompiler}.
+ * A hidden class is defined weakly, so it is unloaded together with the last reference to this expression.
+ * Thread safe, a compiled formula keeps its values on the stack of the caller thread.
+ */
+public final class CompiledExpression {
+    private final StackProgram program;
+    private final Formula formula;
+
+    CompiledExpression(StackProgram program, Formula formula) {
+        this.program = program;
+        this.formula = formula;
+    }
+
+    public StackProgram program() {
+        return program;
+    }
+
+    /**
+     * The class that evaluates the formula, a hidden class for a formula compiled to bytecode.
+     */
+    public Class<?> formulaClass() {
+        return formula.getClass();
+    }
+
+    public double evaluate(Bindings bindings) {
+        if (bindings.program() != program) {
+            throw new IllegalArgumentException("Bindings are made for another program");
+        }
+        return formula.evaluate(bindings.values());
+    }
+
+    /**
+     * @param slots values of the variables by the slots of the program
+     */
+    public double evaluate(double[] slots) {
+        return formula.evaluate(slots);
+    }
+
+    /**
+     * Implemented by every generated class and by the holder of a method handle.
+     */
+    interface Formula {
+        double evaluate(double[] slots);
+    }
+}
@@ -0,0 +1,221 @@
+package maksym.perevalov.eval;
+
+import static maksym.perevalov.eval.StackProgram.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.MathElement;
+
+/**
+ * Keeps the value of every subtree of a {@link StackProgram} between evaluations, for a formula where only a few variables
+ * change between updates. Every instruction is a node, that knows its parent and the nodes of its operands,
+ * and every slot knows the leafs that read it. Setting a variable marks the ancestors of its leafs dirty,
+ * the marking stops at a node that is dirty already, and {@link #value()} recomputes only the dirty nodes,
+ * so an update of one variable costs the height of the tree instead of its size.
+ * A call of an impure function is recomputed on every {@link #value()}, with its ancestors.
+ * A session is not thread safe.
+ */
+public final class EvaluationSession {
+    private final StackProgram program;
+    private final int[] code;
+    private final double[] constants;
+    private final double[] slots;
+    // per node: its parent or -1 for the root, and its operands at operandStarts[node] until operandStarts[node + 1]
+    private final int[] parents;
+    private final int[] operandStarts;
+    private final int[] operands;
+    // per slot: the leafs that read it at readerStarts[slot] until readerStarts[slot + 1]
+    private final int[] readerStarts;
+    private final int[] readers;
+    private final int[] impureCalls;
+    private final double[] values;
+    private final boolean[] dirty;
+    private int[] dirtyNodes;
+    private int dirtyCount;
+    private int recomputed;
+    private double[] arguments = new double[2];
+
+    public EvaluationSession(StackProgram program, MathContext context) {
+        this(program, program.slots(context));
+    }
+
+    /**
+     * @param slots the initial values of the slots, copied
+     */
+    public EvaluationSession(StackProgram program, double[] slots) {
+        if (slots.length < program.slotCount()) {
+            throw new IllegalArgumentException("Expected %s slots, but got %s".formatted(program.slotCount(), slots.length));
+        }
+        this.program = program;
+        this.code = program.code();
+        this.constants = program.constants();
+        this.slots = Arrays.copyOf(slots, program.slotCount());
+        int size = code.length;
+        this.parents = new int[size];
+        this.operandStarts = new int[size + 1];
+        this.values = new double[size];
+        this.dirty = new boolean[size];
+        this.dirtyNodes = new int[Math.max(16, size)];
+
+        var stack = new int[Math.max(1, program.maxStackSize())];
+        var operandList = new int[size];
+        int operandCount = 0;
+        int top = 0;
+        var readerCounts = new int[program.slotCount() + 1];
+        int impureCount = 0;
+        for (int i = 0; i < size; i++) {
+            int opcode = opcode(i);
+            int count = operandCount(i);
+            top -= count;
+            operandStarts[i] = operandCount;
+            for (int k = 0; k < count; k++) {
+                parents[stack[top + k]] = i;
+                operandList[operandCount++] = stack[top + k];
+            }
+            stack[top++] = i;
+            if (opcode == VARIABLE || opcode == NEGATED_VARIABLE) {
+                readerCounts[operand(i) + 1]++;
+            } else if (opcode == CALL && !program.call(operand(i)).function().pure()) {
+                impureCount++;
+            }
+        }
+        operandStarts[size] = operandCount;
+        parents[size - 1] = -1;
+        this.operands = Arrays.copyOf(operandList, operandCount);
+
+        for (int slot = 0; slot < program.slotCount(); slot++) {
+            readerCounts[slot + 1] += readerCounts[slot];
+        }
+        this.readerStarts = readerCounts.clone();
+        this.readers = new int[readerStarts[program.slotCount()]];
+        this.impureCalls = new int[impureCount];
+        var nextReader = readerCounts;
+        impureCount = 0;
+        for (int i = 0; i < size; i++) {
+            int opcode = opcode(i);
+            if (opcode == VARIABLE || opcode == NEGATED_VARIABLE) {
+                readers[nextReader[operand(i)]++] = i;
+            } else if (opcode == CALL && !program.call(operand(i)).function().pure()) {
+                impureCalls[impureCount++] = i;
+            }
+        }
+
+        // the first value computes every node
+        Arrays.fill(dirty, true);
+        for (int i = 0; i < size; i++) {
+            dirtyNodes[i] = i;
+        }
+        dirtyCount = size;
+    }
+
+    public StackProgram program() {
+        return program;
+    }
+
+    /**
+     * Sets a negated name such as "-a" as the negated value of "a", a variable the program does not read is ignored.
+     */
+    public EvaluationSession set(String variable, double value) {
+        int slot = program.slot(variable);
+        if (slot >= 0) {
+            set(slot, StackProgram.isNegated(variable) ? -value : value);
+        }
+        return this;
+    }
+
+    public EvaluationSession set(int slot, double value) {
+        if (Double.compare(slots[slot], value) == 0) {
+            return this;
+        }
+        slots[slot] = value;
+        for (int i = readerStarts[slot]; i < readerStarts[slot + 1]; i++) {
+            markDirty(readers[i]);
+        }
+        return this;
+    }
+
+    public EvaluationSession setAll(Map<String, Double> variables) {
+        variables.forEach(this::set);
+        return this;
+    }
+
+    /**
+     * Recomputes the dirty nodes, children before their parents, and returns the value of the root.
+     */
+    public double value() {
+        for (int call : impureCalls) {
+            markDirty(call);
+        }
+        // nodes are in post-order, so an operand always has a lower index than its operation
+        Arrays.sort(dirtyNodes, 0, dirtyCount);
+        for (int i = 0; i < dirtyCount; i++) {
+            int node = dirtyNodes[i];
+            values[node] = compute(node);
+            dirty[node] = false;
+        }
+        recomputed = dirtyCount;
+        dirtyCount = 0;
+        return values[values.length - 1];
+    }
+
+    /**
+     * The number of nodes the last {@link #value()} recomputed, the first one computes all of them.
+     */
+    public int recomputed() {
+        return recomputed;
+    }
+
+    private void markDirty(int node) {
+        for (int current = node; current >= 0 && !dirty[current]; current = parents[current]) {
+            dirty[current] = true;
+            if (dirtyCount == dirtyNodes.length) {
+                dirtyNodes = Arrays.copyOf(dirtyNodes, dirtyCount * 2);
+            }
+            dirtyNodes[dirtyCount++] = current;
+        }
+    }
+
+    private double compute(int node) {
+        int operand = operand(node);
+        int first = operandStarts[node];
+        return switch (opcode(node)) {
+            case CONSTANT -> constants[operand];
+            case VARIABLE -> slots[operand];
+            case NEGATED_VARIABLE -> -slots[operand];
+            case ADD -> values[operands[first]] + values[operands[first + 1]];
+            case SUBTRACT -> values[operands[first]] - values[operands[first + 1]];
+            case MULTIPLY -> values[operands[first]] * values[operands[first + 1]];
+            case DIVIDE -> values[operands[first]] / values[operands[first + 1]];
+            case POWER -> MathElement.Power.apply(values[operands[first]], values[operands[first + 1]]);
+            case CALL -> {
+                var call = program.call(operand);
+                if (arguments.length < call.arguments()) {
+                    arguments = new double[call.arguments()];
+                }
+                for (int k = 0; k < call.arguments(); k++) {
+                    arguments[k] = values[operands[first + k]];
+                }
+                yield call.function().apply(arguments, 0, call.arguments());
+            }
+            default -> throw new IllegalStateException("Unknown opcode " + opcode(node));
+        };
+    }
+
+    private int operandCount(int node) {
+        return switch (opcode(node)) {
+            case CONSTANT, VARIABLE, NEGATED_VARIABLE -> 0;
+            case CALL -> program.call(operand(node)).arguments();
+            default -> 2;
+        };
+    }
+
+    private int opcode(int node) {
+        return code[node] & OPCODE_MASK;
+    }
+
+    private int operand(int node) {
+        return code[node] >>> OPCODE_BITS;
+    }
+}
@@ -0,0 +1,167 @@
+package maksym.perevalov.eval;
+
+import static maksym.perevalov.eval.StackProgram.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.NativeFunction;
+import maksym.perevalov.tree.NativeFunction.Intrinsic;
+import maksym.perevalov.tree.TreeNode;
+
+/**
+ * Folds a {@link StackProgram} into one {@link MethodHandle} of type {@code (double[])double} built from combinators,
+ * without generating any class file. An operation filters both arguments of its {@code (double, double)double}
+ * handle with the handles of its operands and merges the two array parameters into one.
+ * The JIT inlines the whole handle tree when the handle is a constant to it, as a {@code static final} field
+ * or the target of a {@link java.lang.invoke.ConstantCallSite}, and a handle called often enough through a field is
+ * customized and comes close to {@link BytecodeCompiler}. That holds for small formulas, a formula of thousands of nodes
+ * is beyond the inlining limits and is slower than {@link StackMachine}, so it should be compiled to bytecode.
+ * Every node is a level of nested handles, so deep trees should be balanced by {@link maksym.perevalov.tree.TreeOptimizer} first.
+ */
+public final class MethodHandleCompiler {
+    private static final MethodType EVALUATE_TYPE = MethodType.methodType(double.class, double[].class);
+    private static final MethodType UNARY_TYPE = MethodType.methodType(double.class, double.class);
+    private static final MethodType OPERATION_TYPE = MethodType.methodType(double.class, double.class, double.class);
+    private static final MethodHandle SLOT = MethodHandles.arrayElementGetter(double[].class);
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle APPLY;
+    private static final MethodHandle[] OPERATIONS = new MethodHandle[POWER + 1];
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            NEGATE = lookup.findStatic(MethodHandleCompiler.class, "negate", UNARY_TYPE);
+            OPERATIONS[ADD] = lookup.findStatic(MethodHandleCompiler.class, "add", OPERATION_TYPE);
+            OPERATIONS[SUBTRACT] = lookup.findStatic(MethodHandleCompiler.class, "subtract", OPERATION_TYPE);
+            OPERATIONS[MULTIPLY] = lookup.findStatic(MethodHandleCompiler.class, "multiply", OPERATION_TYPE);
+            OPERATIONS[DIVIDE] = lookup.findStatic(MethodHandleCompiler.class, "divide", OPERATION_TYPE);
+            OPERATIONS[POWER] = lookup.findStatic(MathElement.Power.class, "apply", OPERATION_TYPE);
+            APPLY = lookup.findVirtual(NativeFunction.class, "apply",
+                  MethodType.methodType(double.class, int.class, double.class, double.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MethodHandleCompiler() {
+    }
+
+    public static CompiledExpression compile(TreeNode root) {
+        return compile(StackProgram.compile(root));
+    }
+
+    public static CompiledExpression compile(StackProgram program) {
+        return new CompiledExpression(program, new HandleFormula(handle(program)));
+    }
+
+    /**
+     * The handle of type {@code (double[])double}, that takes the values of the slots of the program.
+     */
+    public static MethodHandle handle(StackProgram program) {
+        var operands = new MethodHandle[Math.max(1, program.maxStackSize())];
+        var constants = program.constants();
+        int top = 0;
+        for (int i = 0; i < program.size(); i++) {
+            int operand = program.operand(i);
+            switch (program.opcode(i)) {
+                case CONSTANT -> operands[top++] = MethodHandles.dropArguments(
+                      MethodHandles.constant(double.class, constants[operand]), 0, double[].class);
+                case VARIABLE -> operands[top++] = MethodHandles.insertArguments(SLOT, 1, operand);
+                case NEGATED_VARIABLE -> operands[top++] = MethodHandles.filterReturnValue(
+                      MethodHandles.insertArguments(SLOT, 1, operand), NEGATE);
+                case ADD, SUBTRACT, MULTIPLY, DIVIDE, POWER -> {
+                    var right = operands[--top];
+                    var left = operands[top - 1];
+                    var operation = MethodHandles.filterArguments(OPERATIONS[program.opcode(i)], 0, left, right);
+                    operands[top - 1] = MethodHandles.permuteArguments(operation, EVALUATE_TYPE, 0, 0);
+                }
+                case CALL -> {
+                    var call = program.call(program.operand(i));
+                    top -= call.arguments();
+                    operands[top] = call(call, Arrays.copyOfRange(operands, top, top + call.arguments()));
+                    top++;
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + program.opcode(i));
+            }
+        }
+        return operands[0];
+    }
+
+    /**
+     * An intrinsic is the {@link Math} method, any other function is applied by {@link NativeFunction#apply(int, double, double)}.
+     */
+    private static MethodHandle call(Call call, MethodHandle[] arguments) {
+        if (arguments.length > 2) {
+            throw new IllegalArgumentException("Calls of more than two arguments are not compiled, '%s' has %s"
+                  .formatted(call.function().name(), arguments.length));
+        }
+        var function = call.function();
+        var intrinsic = function.intrinsic();
+        MethodHandle target;
+        if (intrinsic == Intrinsic.MIN || intrinsic == Intrinsic.MAX) {
+            if (arguments.length == 0) {
+                double identity = intrinsic == Intrinsic.MIN ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+                return MethodHandles.dropArguments(MethodHandles.constant(double.class, identity), 0, double[].class);
+            }
+            if (arguments.length == 1) {
+                return arguments[0];
+            }
+        }
+        if (intrinsic != null) {
+            try {
+                target = MethodHandles.lookup().findStatic(Math.class, intrinsic.methodName(),
+                      arguments.length == 1 ? UNARY_TYPE : OPERATION_TYPE);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            target = MethodHandles.insertArguments(APPLY.bindTo(function), 0, arguments.length);
+            for (int missing = arguments.length; missing < 2; missing++) {
+                target = MethodHandles.insertArguments(target, arguments.length, 0.0);
+            }
+        }
+        if (arguments.length == 0) {
+            return MethodHandles.dropArguments(target, 0, double[].class);
+        }
+        return MethodHandles.permuteArguments(MethodHandles.filterArguments(target, 0, arguments), EVALUATE_TYPE,
+              new int[arguments.length]);
+    }
+
+    private static double negate(double value) {
+        return -value;
+    }
+
+    private static double add(double left, double right) {
+        return left + right;
+    }
+
+    private static double subtract(double left, double right) {
+        return left - right;
+    }
+
+    private static double multiply(double left, double right) {
+        return left * right;
+    }
+
+    private static double divide(double left, double right) {
+        return left / right;
+    }
+
+    private record HandleFormula(MethodHandle handle) implements CompiledExpression.Formula {
+
+        @Override
+        public double evaluate(double[] slots) {
+            try {
+                return (double) handle.invokeExact(slots);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package maksym.perevalov.eval;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.TreeNode;
+
+/**
+ * Computes a tree on a {@link ForkJoinPool}, the same as {@link TreeNode#compute(MathContext)}.
+ * Where both operands of a node weigh at least the threshold, the lighter one is forked and the heavier one is computed
+ * by the same task, a light operand is computed sequentially, so the tree is split by the weights its nodes cache
+ * and a task never gets less than the threshold of work. Only a balanced tree, as {@link maksym.perevalov.tree.TreeOptimizer}
+ * makes it, has subtrees to fork, a chain is computed by one thread.
+ */
+public final class ParallelEvaluator {
+    public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+    private final MathContext context;
+    private final int threshold;
+
+    public ParallelEvaluator(MathContext context) {
+        this(context, DEFAULT_THRESHOLD);
+    }
+
+    public ParallelEvaluator(MathContext context, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive, but got " + threshold);
+        }
+        this.context = context;
+        this.threshold = threshold;
+    }
+
+    public double evaluate(TreeNode root) {
+        return evaluate(root, ForkJoinPool.commonPool());
+    }
+
+    public double evaluate(TreeNode root, ForkJoinPool pool) {
+        if (root == null || root.weight() < 2 * threshold) {
+            return root == null ? 0 : root.compute(context);
+        }
+        var task = new ComputeTask(root);
+        pool.invoke(task);
+        return task.value;
+    }
+
+    private static int weight(TreeNode node) {
+        return node == null ? 0 : node.weight();
+    }
+
+    private boolean isHeavy(TreeNode node) {
+        return node != null && node.weight() >= threshold;
+    }
+
+    private double computeSequentially(TreeNode node) {
+        return node == null ? 0 : node.compute(context);
+    }
+
+    private double apply(TreeNode node, double left, double right) {
+        return switch (node.value()) {
+            case MathElement.Plus _ -> left + right;
+            case MathElement.Minus _ -> left - right;
+            case MathElement.Multiply _ -> left * right;
+            case MathElement.Divide _ -> left / right;
+            case MathElement.Power _ -> MathElement.Power.apply(left, right);
+            case MathElement.Function function -> {
+                int arguments = (node.hasLeft() ? 1 : 0) + (node.hasRight() ? 1 : 0);
+                // the only argument of a call may be its right child
+                double first = node.hasLeft() ? left : right;
+                yield context.function(function.value()).apply(arguments, first, right);
+            }
+            default -> throw new IllegalStateException("Not an operation " + node.value());
+        };
+    }
+
+    /**
+     * Keeps its value in a primitive field, so a forked task boxes nothing.
+     */
+    private final class ComputeTask extends RecursiveAction {
+        private final TreeNode root;
+        private double value;
+
+        ComputeTask(TreeNode root) {
+            this.root = root;
+        }
+
+        /**
+         * Goes down the heavier operand, forking the other one when it is heavy too, and applies the nodes on the way back up.
+         * A forked subtree weighs at most half of its parent, so tasks nest only logarithmically deep.
+         */
+        @Override
+        protected void compute() {
+            // nodes on the way down, the side of the heavier operand and the value or the task of the other one
+            int depth = root.height();
+            var path = new TreeNode[depth];
+            var heavyLefts = new boolean[depth];
+            var values = new double[depth];
+            var tasks = new ComputeTask[depth];
+            int length = 0;
+            var node = root;
+            while (!node.isValue() && (isHeavy(node.left()) || isHeavy(node.right()))) {
+                boolean heavyLeft = weight(node.left()) >= weight(node.right());
+                var other = heavyLeft ? node.right() : node.left();
+                if (isHeavy(other)) {
+                    tasks[length] = new ComputeTask(other);
+                    tasks[length].fork();
+                } else {
+                    values[length] = computeSequentially(other);
+                }
+                heavyLefts[length] = heavyLeft;
+                path[length++] = node;
+                node = heavyLeft ? node.left() : node.right();
+            }
+            double value = computeSequentially(node);
+            for (int i = length - 1; i >= 0; i--) {
+                if (tasks[i] != null) {
+                    tasks[i].join();
+                    values[i] = tasks[i].value;
+                }
+                value = heavyLefts[i] ? apply(path[i], value, values[i]) : apply(path[i], values[i], value);
+            }
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package maksym.perevalov.eval;
+
+import static maksym.perevalov.eval.StackProgram.*;
+
+import maksym.perevalov.tree.MathElement;
+
+/**
+ * Interpreter of a {@link StackProgram} over a primitive stack, that is allocated once, so an evaluation allocates nothing.
+ * Not thread safe, every thread needs its own machine, while the program may be shared.
+ */
+public final class StackMachine {
+    private final StackProgram program;
+    private final int[] code;
+    private final double[] constants;
+    private final StackProgram.Call[] calls;
+    private final double[] stack;
+
+    public StackMachine(StackProgram program) {
+        this.program = program;
+        this.code = program.code();
+        this.constants = program.constants();
+        this.calls = new StackProgram.Call[program.callCount()];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = program.call(i);
+        }
+        this.stack = new double[Math.max(1, program.maxStackSize())];
+    }
+
+    public double evaluate(Bindings bindings) {
+        if (bindings.program() != program) {
+            throw new IllegalArgumentException("Bindings are made for another program");
+        }
+        return evaluate(bindings.values());
+    }
+
+    /**
+     * @param slots values of the variables by the slots of the program
+     */
+    public double evaluate(double[] slots) {
+        var stack = this.stack;
+        int top = 0;
+        for (int instruction : code) {
+            int operand = instruction >>> OPCODE_BITS;
+            switch (instruction & OPCODE_MASK) {
+                case CONSTANT -> stack[top++] = constants[operand];
+                case VARIABLE -> stack[top++] = slots[operand];
+                case NEGATED_VARIABLE -> stack[top++] = -slots[operand];
+                case ADD -> {
+                    top--;
+                    stack[top - 1] += stack[top];
+                }
+                case SUBTRACT -> {
+                    top--;
+                    stack[top - 1] -= stack[top];
+                }
+                case MULTIPLY -> {
+                    top--;
+                    stack[top - 1] *= stack[top];
+                }
+                case DIVIDE -> {
+                    top--;
+                    stack[top - 1] /= stack[top];
+                }
+                case POWER -> {
+                    top--;
+                    stack[top - 1] = MathElement.Power.apply(stack[top - 1], stack[top]);
+                }
+                case CALL -> {
+                    var call = calls[operand];
+                    top -= call.arguments();
+                    stack[top] = call.function().apply(stack, top, call.arguments());
+                    top++;
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + (instruction & OPCODE_MASK));
+            }
+        }
+        return stack[0];
+    }
+}
@@ -0,0 +1,290 @@
+package maksym.perevalov.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import maksym.perevalov.tree.FunctionRegistry;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.NativeFunction;
+import maksym.perevalov.tree.TreeNode;
+
+/**
+ * Linear program for {@link StackMachine}, compiled from a tree in post-order: one int per instruction,
+ * an opcode in the low byte and an index into the constant pool or the variable slots in the rest of the bits.
+ * Constants are parsed once and every variable name is resolved to a slot once, a negated variable such as "-a",
+ * which {@link maksym.perevalov.tree.TreeOptimizer} makes, reads the slot of "a" and negates it.
+ * Functions are resolved once too, a call is an index into the table of calls, and a call of a pure function
+ * with constant arguments is computed on compilation.
+ * The result is the same as {@link TreeNode#compute(MathContext)}: a function is applied to the children of its node and a missing operand is 0.
+ */
+public final class StackProgram {
+    public static final int CONSTANT = 0;
+    public static final int VARIABLE = 1;
+    public static final int NEGATED_VARIABLE = 2;
+    public static final int ADD = 3;
+    public static final int SUBTRACT = 4;
+    public static final int MULTIPLY = 5;
+    public static final int DIVIDE = 6;
+    public static final int CALL = 7;
+    public static final int POWER = 8;
+
+    static final int OPCODE_BITS = 8;
+    static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    private final int[] code;
+    private final double[] constants;
+    private final Call[] calls;
+    private final String[] variables;
+    private final Map<String, Integer> slots;
+    private final int maxStackSize;
+
+    private StackProgram(int[] code, double[] constants, Call[] calls, String[] variables, Map<String, Integer> slots, int maxStackSize) {
+        this.code = code;
+        this.constants = constants;
+        this.calls = calls;
+        this.variables = variables;
+        this.slots = slots;
+        this.maxStackSize = maxStackSize;
+    }
+
+    /**
+     * Compiles with the built-in functions.
+     */
+    public static StackProgram compile(TreeNode root) {
+        return compile(root, FunctionRegistry.builtIns());
+    }
+
+    public static StackProgram compile(TreeNode root, FunctionRegistry functions) {
+        var builder = new Builder(functions);
+        // post-order walk, a missing operand of an operator is compiled as 0, a call has only the arguments it has
+        var nodes = new TreeNode[16];
+        var expanded = new boolean[16];
+        int depth = 0;
+        nodes[depth++] = root;
+        while (depth > 0) {
+            var node = nodes[depth - 1];
+            if (!expanded[depth - 1] && isOperation(node)) {
+                expanded[depth - 1] = true;
+                if (depth + 2 > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                    expanded = Arrays.copyOf(expanded, expanded.length * 2);
+                }
+                boolean call = node.value() instanceof MathElement.Function;
+                if (!call || node.hasRight()) {
+                    nodes[depth] = node.right();
+                    expanded[depth++] = false;
+                }
+                if (!call || node.hasLeft()) {
+                    nodes[depth] = node.left();
+                    expanded[depth++] = false;
+                }
+                continue;
+            }
+            depth--;
+            builder.add(node);
+        }
+        return builder.build();
+    }
+
+    private static boolean isOperation(TreeNode node) {
+        if (node == null) return false;
+        var value = node.value();
+        return value instanceof MathElement.Plus || value instanceof MathElement.Minus
+              || value instanceof MathElement.Multiply || value instanceof MathElement.Divide || value instanceof MathElement.Power
+              || value instanceof MathElement.Function;
+    }
+
+    int[] code() {
+        return code;
+    }
+
+    double[] constants() {
+        return constants;
+    }
+
+    /**
+     * The call of an instruction with the {@link #CALL} opcode, by its operand.
+     */
+    public Call call(int operand) {
+        return calls[operand];
+    }
+
+    public int callCount() {
+        return calls.length;
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    public int opcode(int index) {
+        return code[index] & OPCODE_MASK;
+    }
+
+    public int operand(int index) {
+        return code[index] >>> OPCODE_BITS;
+    }
+
+    public int maxStackSize() {
+        return maxStackSize;
+    }
+
+    /**
+     * Names of the variable slots, without the minus of negated variables.
+     */
+    public List<String> variables() {
+        return List.of(variables);
+    }
+
+    public int slotCount() {
+        return variables.length;
+    }
+
+    /**
+     * The slot of a variable, a negated name such as "-a" has the slot of "a", or -1 when the program does not read the variable.
+     */
+    public int slot(String variable) {
+        var name = isNegated(variable) ? variable.substring(1) : variable;
+        return slots.getOrDefault(name, -1);
+    }
+
+    static boolean isNegated(String variable) {
+        return !variable.isEmpty() && variable.charAt(0) == '-';
+    }
+
+    /**
+     * Values of the slots as the context reads them.
+     */
+    public double[] slots(MathContext context) {
+        var slots = new double[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            slots[i] = context.readVariable(variables[i]);
+        }
+        return slots;
+    }
+
+    /**
+     * Bindings with every variable 0.
+     */
+    public Bindings bindings() {
+        return new Bindings(this, new double[variables.length]);
+    }
+
+    public Bindings bindings(MathContext context) {
+        return new Bindings(this, slots(context));
+    }
+
+    /**
+     * A function with the number of arguments it is called with.
+     */
+    public record Call(NativeFunction function, int arguments) {
+    }
+
+    private static final class Builder {
+        private final FunctionRegistry functions;
+        private final List<Call> calls = new ArrayList<>();
+        private final Map<Call, Integer> callIndexes = new HashMap<>();
+        private int[] code = new int[16];
+        private int size;
+        private double[] constants = new double[8];
+        private int constantCount;
+        private final List<String> variables = new ArrayList<>();
+        private final Map<String, Integer> slots = new HashMap<>();
+        private int stackSize;
+        private int maxStackSize;
+
+        Builder(FunctionRegistry functions) {
+            this.functions = functions;
+        }
+
+        void add(TreeNode node) {
+            if (node == null) {
+                constant(0);
+                return;
+            }
+            switch (node.value()) {
+                case MathElement.MNumber number -> constant(Double.parseDouble(number.value()));
+                case MathElement.Varaible variable -> {
+                    var name = variable.value();
+                    if (isNegated(name)) {
+                        add(NEGATED_VARIABLE, slot(name.substring(1)), 1);
+                    } else {
+                        add(VARIABLE, slot(name), 1);
+                    }
+                }
+                case MathElement.Function function ->
+                      call(functions.function(function.value()), (node.hasLeft() ? 1 : 0) + (node.hasRight() ? 1 : 0));
+                case MathElement.Plus _ -> add(ADD, 0, -1);
+                case MathElement.Minus _ -> add(SUBTRACT, 0, -1);
+                case MathElement.Multiply _ -> add(MULTIPLY, 0, -1);
+                case MathElement.Divide _ -> add(DIVIDE, 0, -1);
+                case MathElement.Power _ -> add(POWER, 0, -1);
+            }
+        }
+
+        private void constant(double value) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount] = value;
+            add(CONSTANT, constantCount++, 1);
+        }
+
+        private void call(NativeFunction function, int arguments) {
+            function.checkArity(arguments);
+            if (function.pure() && areConstants(arguments)) {
+                var values = new double[arguments];
+                for (int i = 0; i < arguments; i++) {
+                    values[i] = constants[code[size - arguments + i] >>> OPCODE_BITS];
+                }
+                size -= arguments;
+                stackSize -= arguments;
+                constant(function.apply(values, 0, arguments));
+                return;
+            }
+            var call = new Call(function, arguments);
+            int index = callIndexes.computeIfAbsent(call, _ -> {
+                calls.add(call);
+                return calls.size() - 1;
+            });
+            add(CALL, index, 1 - arguments);
+        }
+
+        /**
+         * Whether the last instructions are constants, then they are the arguments on top of the stack.
+         */
+        private boolean areConstants(int count) {
+            for (int i = size - count; i < size; i++) {
+                if ((code[i] & OPCODE_MASK) != CONSTANT) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int slot(String name) {
+            return slots.computeIfAbsent(name, _ -> {
+                variables.add(name);
+                return variables.size() - 1;
+            });
+        }
+
+        private void add(int opcode, int operand, int stackChange) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = opcode | operand << OPCODE_BITS;
+            stackSize += stackChange;
+            maxStackSize = Math.max(maxStackSize, stackSize);
+        }
+
+        StackProgram build() {
+            return new StackProgram(Arrays.copyOf(code, size), Arrays.copyOf(constants, constantCount), calls.toArray(Call[]::new),
+                  variables.toArray(String[]::new), Map.copyOf(slots), maxStackSize);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package maksym.perevalov.eval;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ColumnKernels} on the preferred vector shape of the platform, the tail that does not fill a vector is done by scalar code.
+ * Every operator has its own loop, so the operation of each loop is a constant the JIT can intrinsify.
+ * Loaded by name from {@link ColumnKernels#best()}, so nothing else links against the incubator module.
+ */
+final class VectorKernels implements ColumnKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final ColumnKernels scalar = new ScalarKernels();
+
+    @Override
+    public void fill(double[] target, int length, double value) {
+        var vector = DoubleVector.broadcast(SPECIES, value);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            vector.intoArray(target, i);
+        }
+        for (; i < length; i++) {
+            target[i] = value;
+        }
+    }
+
+    @Override
+    public void negate(double[] source, int sourceOffset, double[] target, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, source, sourceOffset + i).neg().intoArray(target, i);
+        }
+        for (; i < length; i++) {
+            target[i] = -source[sourceOffset + i];
+        }
+    }
+
+    @Override
+    public void apply(int opcode, double[] left, int leftOffset, double[] right, int rightOffset, double[] target, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        switch (opcode) {
+            case StackProgram.ADD -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(left, leftOffset + i).add(load(right, rightOffset + i)).intoArray(target, i);
+                }
+                for (; i < length; i++) target[i] = left[leftOffset + i] + right[rightOffset + i];
+            }
+            case StackProgram.SUBTRACT -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(left, leftOffset + i).sub(load(right, rightOffset + i)).intoArray(target, i);
+                }
+                for (; i < length; i++) target[i] = left[leftOffset + i] - right[rightOffset + i];
+            }
+            case StackProgram.MULTIPLY -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(left, leftOffset + i).mul(load(right, rightOffset + i)).intoArray(target, i);
+                }
+                for (; i < length; i++) target[i] = left[leftOffset + i] * right[rightOffset + i];
+            }
+            case StackProgram.DIVIDE -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(left, leftOffset + i).div(load(right, rightOffset + i)).intoArray(target, i);
+                }
+                for (; i < length; i++) target[i] = left[leftOffset + i] / right[rightOffset + i];
+            }
+            // exponentiation by squaring loops a different number of times in every lane
+            case StackProgram.POWER -> scalar.apply(opcode, left, leftOffset, right, rightOffset, target, length);
+            default -> throw new IllegalStateException("Not a binary opcode " + opcode);
+        }
+    }
+
+    /**
+     * Vectorizes only the intrinsics that are exact, sqrt, abs, min and max, so every backend gives the same results,
+     * the lanewise transcendental functions may differ from {@link Math} in the last bit.
+     */
+    @Override
+    public void call(StackProgram.Call call, double[][] columns, int[] offsets, int first, double[] target, int length) {
+        var intrinsic = call.function().intrinsic();
+        int arguments = call.arguments();
+        var operator = intrinsic == null ? null : switch (intrinsic) {
+            case SQRT -> arguments == 1 ? VectorOperators.SQRT : null;
+            case ABS -> arguments == 1 ? VectorOperators.ABS : null;
+            case MIN -> arguments == 2 ? VectorOperators.MIN : null;
+            case MAX -> arguments == 2 ? VectorOperators.MAX : null;
+            default -> null;
+        };
+        if (operator == null) {
+            scalar.call(call, columns, offsets, first, target, length);
+            return;
+        }
+        var x = columns[first];
+        int xOffset = offsets[first];
+        var y = arguments == 2 ? columns[first + 1] : null;
+        int yOffset = arguments == 2 ? offsets[first + 1] : 0;
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        if (operator instanceof VectorOperators.Unary unary) {
+            for (; i < bound; i += SPECIES.length()) {
+                load(x, xOffset + i).lanewise(unary).intoArray(target, i);
+            }
+        } else {
+            var binary = (VectorOperators.Binary) operator;
+            for (; i < bound; i += SPECIES.length()) {
+                load(x, xOffset + i).lanewise(binary, load(y, yOffset + i)).intoArray(target, i);
+            }
+        }
+        for (; i < length; i++) {
+            double value = x[xOffset + i];
+            target[i] = switch (intrinsic) {
+                case SQRT -> Math.sqrt(value);
+                case ABS -> Math.abs(value);
+                case MIN -> Math.min(value, y[yOffset + i]);
+                default -> Math.max(value, y[yOffset + i]);
+            };
+        }
+    }
+
+    private static DoubleVector load(double[] column, int offset) {
+        return DoubleVector.fromArray(SPECIES, column, offset);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+}
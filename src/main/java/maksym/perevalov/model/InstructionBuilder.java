@@ -1,5 +1,6 @@
 package maksym.perevalov.model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -23,7 +24,7 @@ public class InstructionBuilder {
         List<List<TreeNode>> operators = Stream.<List<TreeNode>>generate(ArrayList::new)
               .limit(expression.height())
               .collect(Collectors.toList());
-        collectOperations(operators, 0, expression);
+        collectOperations(operators, expression);
         return operators.stream()
               .filter(Predicate.not(List::isEmpty))
               .map(this::mapOperators)
@@ -36,13 +37,27 @@ public class InstructionBuilder {
               .toList();
     }
 
-    private void collectOperations(List<List<TreeNode>> order, int level, TreeNode node) {
-        if (node == null) return;
-        if (node.value() instanceof MathElement.Operator) {
-            order.get(level).add(node);
+    private void collectOperations(List<List<TreeNode>> order, TreeNode root) {
+        // pre-order, so the operators of a level keep their order from left to right
+        var nodes = new ArrayDeque<TreeNode>();
+        var levels = new ArrayDeque<Integer>();
+        nodes.push(root);
+        levels.push(0);
+        while (!nodes.isEmpty()) {
+            var node = nodes.pop();
+            int level = levels.pop();
+            if (node.value() instanceof MathElement.Operator) {
+                order.get(level).add(node);
+            }
+            if (node.hasRight()) {
+                nodes.push(node.right());
+                levels.push(level + 1);
+            }
+            if (node.hasLeft()) {
+                nodes.push(node.left());
+                levels.push(level + 1);
+            }
         }
-        collectOperations(order, level + 1, node.left());
-        collectOperations(order, level + 1, node.right());
     }
 
     private int getId() {
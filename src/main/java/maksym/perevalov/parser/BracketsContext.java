@@ -5,7 +5,6 @@ import java.util.Deque;
 
 import maksym.perevalov.parser.ParserError.NoClosedBracketError;
 import maksym.perevalov.parser.ParserError.NoOpenBracketError;
-import maksym.perevalov.parser.Tokenizer.RowToken;
 
 public class BracketsContext {
     private final Deque<Bracket> stack = new ArrayDeque<>();
@@ -20,18 +19,18 @@ public class BracketsContext {
         return functionNestedLevel > 0;
     }
 
-    public void addOpenFunctionBracket(RowToken token) {
+    public void addOpenFunctionBracket(int position) {
         functionNestedLevel++;
-        stack.push(new Bracket(BracketType.FunctionBracket, token.position()));
+        stack.push(new Bracket(BracketType.FunctionBracket, position));
     }
 
-    public void addOpenPrecedenceBracket(RowToken token) {
-        stack.push(new Bracket(BracketType.PrecedenceBracket, token.position()));
+    public void addOpenPrecedenceBracket(int position) {
+        stack.push(new Bracket(BracketType.PrecedenceBracket, position));
     }
 
-    public BracketType addClosedBracket(RowToken token) {
+    public BracketType addClosedBracket(int position) {
         if (stack.isEmpty()) {
-            errorCollector.add(new NoOpenBracketError(token.position()));
+            errorCollector.add(new NoOpenBracketError(position));
             return BracketType.PrecedenceBracket;
         }
         var bracket = stack.pop();
@@ -40,10 +39,9 @@ public class BracketsContext {
     }
 
     public void collectErrors() {
-        var noClosedBrackets = stack.stream()
-              .map(bracket -> new NoClosedBracketError(bracket.position()))
-              .toList();
-        errorCollector.addAll(noClosedBrackets);
+        for (var bracket : stack) {
+            errorCollector.add(new NoClosedBracketError(bracket.position()));
+        }
     }
 
     private record Bracket(BracketType type, int position) {
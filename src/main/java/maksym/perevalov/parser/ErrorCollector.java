@@ -6,27 +6,81 @@ import static maksym.perevalov.parser.Tokenizer.*;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Collects errors of the front end. By default every error is kept, with a limit only the first errors found are kept
+ * and the front end stops reading input as soon as the collector {@link #isFull()}.
+ * Errors are kept as records and turned into messages only when they are read.
+ */
 public class ErrorCollector {
+    private static final Comparator<ParserError> BY_POSITION = Comparator.comparing(ParserError::position);
 
     private final List<ParserError> errors = new ArrayList<>();
+    private final int limit;
+
+    public ErrorCollector() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public ErrorCollector(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Error limit has to be positive, got " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Collector that keeps only the first error, for callers that need to know whether input is valid and not why.
+     */
+    public static ErrorCollector failFast() {
+        return new ErrorCollector(1);
+    }
 
     public <T extends ParserError> void add(T error) {
-        errors.add(error);
+        if (errors.size() < limit) {
+            errors.add(error);
+        }
     }
 
     public void addAll(List<? extends ParserError> errors) {
-        this.errors.addAll(errors);
+        for (var error : errors) {
+            add(error);
+        }
     }
 
     public boolean hasErrors() {
         return !errors.isEmpty();
     }
 
+    public boolean isFull() {
+        return errors.size() >= limit;
+    }
+
+    /**
+     * Messages in the {@link #report()} order, each one formatted only when it is reached.
+     */
+    public Iterator<String> messages() {
+        return errors.stream()
+              .sorted(BY_POSITION)
+              .map(this::toReadableMessage)
+              .iterator();
+    }
+
+    /**
+     * The message that goes first in {@link #report()}, or null when there are no errors.
+     */
+    public String firstError() {
+        return errors.stream()
+              .min(BY_POSITION)
+              .map(this::toReadableMessage)
+              .orElse(null);
+    }
+
     public List<String> report() {
         return errors.stream()
-              .sorted(Comparator.comparing(ParserError::position))
+              .sorted(BY_POSITION)
               .map(this::toReadableMessage)
               .toList();
     }
@@ -54,26 +108,17 @@ public class ErrorCollector {
     }
 
     private String stringify(RowToken token) {
-        List<TokenType> staticValue = List.of(TokenType.ClosedBracket, TokenType.OpenBracket, TokenType.Comma);
-        if (staticValue.contains(token.type())) {
-            return "'%s'".formatted(token.value());
-        } else {
-            return "%s '%s'".formatted(token.type(), token.value());
-        }
+        return switch (token.type()) {
+            case ClosedBracket, OpenBracket, Comma -> "'%s'".formatted(token.value());
+            default -> "%s '%s'".formatted(token.type(), token.value());
+        };
     }
 
     private String stringify(SyntaxToken token) {
-        List<SyntaxTokenType> staticValue = List.of(
-              SyntaxTokenType.ClosedFunctionBracket,
-              SyntaxTokenType.ClosedPrecedenceBracket,
-              SyntaxTokenType.OpenFunctionBracket,
-              SyntaxTokenType.OpenPrecedenceBracket,
-              SyntaxTokenType.Comma
-        );
-        if (staticValue.contains(token.type())) {
-            return "'%s'".formatted(token.value());
-        } else {
-            return "%s '%s'".formatted(token.type(), token.value());
-        }
+        return switch (token.type()) {
+            case ClosedFunctionBracket, ClosedPrecedenceBracket, OpenFunctionBracket, OpenPrecedenceBracket, Comma ->
+                  "'%s'".formatted(token.value());
+            default -> "%s '%s'".formatted(token.type(), token.value());
+        };
     }
 }
@@ -0,0 +1,45 @@
+package maksym.perevalov.parser;
+
+import maksym.perevalov.tree.MathContext;
+
+/**
+ * Checks a formula without keeping its tokens: the source is scanned in place chunk by chunk
+ * and each syntax token is dropped as soon as the next one is validated against it.
+ */
+public class FormulaValidator {
+    private static final int CHUNK_SIZE = 256;
+    private final MathContext mathContext;
+
+    public FormulaValidator(MathContext mathContext) {
+        this.mathContext = mathContext;
+    }
+
+    public Validation validate(String input) {
+        var errorCollector = new ErrorCollector();
+        parse(input, errorCollector);
+        return errorCollector.hasErrors() ? Validation.invalid(errorCollector.firstError()) : Validation.VALID;
+    }
+
+    /**
+     * Stops reading at the first error found, which is not necessarily the one {@link #validate(String)} reports.
+     */
+    public boolean isValid(String input) {
+        var errorCollector = ErrorCollector.failFast();
+        parse(input, errorCollector);
+        return !errorCollector.hasErrors();
+    }
+
+    private void parse(String input, ErrorCollector errorCollector) {
+        var tokens = TokenBuffer.over(input.toCharArray());
+        var parser = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector);
+        new Tokenizer(mathContext, errorCollector).scan(tokens, CHUNK_SIZE, parser::advanceDiscarding);
+    }
+
+    public record Validation(boolean valid, String firstError) {
+        public static final Validation VALID = new Validation(true, null);
+
+        public static Validation invalid(String firstError) {
+            return new Validation(false, firstError);
+        }
+    }
+}
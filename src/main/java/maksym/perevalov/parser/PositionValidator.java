@@ -21,16 +21,34 @@ public class PositionValidator {
           Map.entry(Comma, List.of(OpenFunctionBracket, OpenPrecedenceBracket, Number, Variable, Function))
     );
 
+    /**
+     * {@link #ALLOWED_NEIGHBORS} compiled to one row per token type ordinal, with a bit set for every allowed next type.
+     */
+    private static final int[] ALLOWED_NEXT = allowedNext();
+
     private final ErrorCollector errorCollector;
 
     public PositionValidator(ErrorCollector errorCollector) {
         this.errorCollector = errorCollector;
     }
 
-    public void validate(SyntaxToken current, SyntaxToken next) {
-        var allowedNextTokens = ALLOWED_NEIGHBORS.get(current.type());
-        if (!allowedNextTokens.contains(next.type())) {
-            errorCollector.add(new ParserError.IncorrectTokenPositionError(current, next));
+    public void validate(TokenBuffer tokens, int current, int next) {
+        if (!isAllowed(tokens.type(current), tokens.type(next))) {
+            errorCollector.add(new ParserError.IncorrectTokenPositionError(tokens.syntaxToken(current), tokens.syntaxToken(next)));
         }
     }
+
+    public static boolean isAllowed(int currentType, int nextType) {
+        return (ALLOWED_NEXT[currentType] >>> nextType & 1) != 0;
+    }
+
+    private static int[] allowedNext() {
+        var allowedNext = new int[SyntaxTokenType.values().length];
+        ALLOWED_NEIGHBORS.forEach((current, neighbors) -> {
+            for (var next : neighbors) {
+                allowedNext[current.ordinal()] |= 1 << next.ordinal();
+            }
+        });
+        return allowedNext;
+    }
 }
@@ -0,0 +1,60 @@
+package maksym.perevalov.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+import maksym.perevalov.tree.MathContext;
+
+/**
+ * Parses expressions that are too big to be kept as one {@link String}. The source is read in
+ * {@link Tokenizer#CHUNK_SIZE} chunks and every token goes to {@link SyntaxParser} as soon as it is scanned,
+ * so only the resulting syntax tokens and their lexemes are kept in memory.
+ */
+public class StreamParser {
+    private final MathContext mathContext;
+    private final ErrorCollector errorCollector;
+
+    public StreamParser(MathContext mathContext, ErrorCollector errorCollector) {
+        this.mathContext = mathContext;
+        this.errorCollector = errorCollector;
+    }
+
+    public TokenBuffer parse(Reader reader) throws IOException {
+        var tokens = TokenBuffer.pooled();
+        var parser = newParser(tokens);
+        tokenizer().tokenize(reader, tokens, parser::advance);
+        return parser.parseTokens();
+    }
+
+    public TokenBuffer parse(ReadableByteChannel channel, Charset charset) throws IOException {
+        var tokens = TokenBuffer.pooled();
+        var parser = newParser(tokens);
+        tokenizer().tokenize(channel, charset, tokens, parser::advance);
+        return parser.parseTokens();
+    }
+
+    public TokenBuffer parse(Path file, Charset charset) throws IOException {
+        return parse(file, charset, Tokenizer.MAPPED_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize the number of bytes of the file mapped at a time
+     */
+    public TokenBuffer parse(Path file, Charset charset, long windowSize) throws IOException {
+        var tokens = TokenBuffer.pooled();
+        var parser = newParser(tokens);
+        tokenizer().tokenize(file, charset, windowSize, tokens, parser::advance);
+        return parser.parseTokens();
+    }
+
+    private Tokenizer tokenizer() {
+        return new Tokenizer(mathContext, errorCollector);
+    }
+
+    private SyntaxParser newParser(TokenBuffer tokens) {
+        return new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector);
+    }
+}
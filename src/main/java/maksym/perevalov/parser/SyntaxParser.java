@@ -1,8 +1,6 @@
 package maksym.perevalov.parser;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import maksym.perevalov.parser.BracketsContext.BracketType;
 import maksym.perevalov.parser.ParserError.CommaError;
@@ -10,105 +8,192 @@ import maksym.perevalov.parser.ParserError.IncorrectIdentifierNameError;
 import maksym.perevalov.parser.Tokenizer.RowToken;
 import maksym.perevalov.parser.Tokenizer.TokenType;
 
+/**
+ * Turns tokens into syntax tokens in one pass: unary minus is resolved, brackets are matched and classified
+ * and every syntax token is validated against the previous one as soon as it is added.
+ */
 public class SyntaxParser {
-    private final List<RowToken> rowTokens;
-    private final List<SyntaxToken> syntaxTokens = new ArrayList<>();
+    private static final int NONE = -1;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final TokenBuffer tokens;
+    private final TokenBuffer syntaxTokens;
     private final ErrorCollector errorCollector;
     private final BracketsContext bracketsContext;
     private final PositionValidator positionValidator;
-    private int nextIndex = 0;
+    private int previousRowType = NONE;
+    private int previousType = NONE;
+    private boolean skipCurrent;
+    private int resolvedCount = 0;
 
     public SyntaxParser(List<RowToken> tokens, BracketsContext bracketsContext, ErrorCollector errorCollector) {
-        this.rowTokens = new UnaryMinusResolver(tokens).resolve();
+        this(TokenBuffer.ofRowTokens(tokens), bracketsContext, errorCollector);
+    }
+
+    /**
+     * Parser of {@code tokens} that may still be filled by {@link Tokenizer}, see {@link #advance()}.
+     */
+    public SyntaxParser(TokenBuffer tokens, BracketsContext bracketsContext, ErrorCollector errorCollector) {
+        this(tokens, tokens.sharingText(), bracketsContext, errorCollector);
+    }
+
+    /**
+     * Parser that appends to {@code syntaxTokens}, a buffer made by {@link TokenBuffer#sharingText()} of {@code tokens}.
+     */
+    public SyntaxParser(TokenBuffer tokens, TokenBuffer syntaxTokens, BracketsContext bracketsContext, ErrorCollector errorCollector) {
+        this.tokens = tokens;
+        this.syntaxTokens = syntaxTokens;
         this.bracketsContext = bracketsContext;
         this.errorCollector = errorCollector;
         this.positionValidator = new PositionValidator(errorCollector);
     }
 
     public List<SyntaxToken> parse() {
-        for (int i = 1; i < rowTokens.size(); i++) {
-            this.nextIndex = i;
-            RowToken currentToken = rowTokens.get(i - 1);
+        return parseTokens().toSyntaxTokens();
+    }
 
-            transformToSyntaxTokenIfPossible(currentToken);
+    public TokenBuffer parseTokens() {
+        advance();
+        return syntaxTokens;
+    }
 
-            if (currentToken.is(TokenType.OpenBracket)) {
-                processOpenBracket(currentToken);
+    /**
+     * Parses the tokens added since the previous call, except the last one which is the lookahead for unary minus.
+     * Nothing is parsed any more once the error collector is full.
+     */
+    public void advance() {
+        int current = 0;
+        for (; current + 1 < tokens.size() && !errorCollector.isFull(); current++) {
+            int next = current + 1;
+            if (skipCurrent) {
+                skipCurrent = false;
+            } else {
+                resolveUnaryMinus(current, next);
             }
-
-            if (currentToken.is(TokenType.ClosedBracket)) {
-                processClosedBracket(currentToken);
+            if (tokens.is(next, TokenType.End)) {
+                processEnd();
             }
+            previousRowType = tokens.type(current);
+        }
+        tokens.discard(current);
+    }
 
-            if (currentToken.is(TokenType.Variable) && isIncorrectName(currentToken)) {
-                errorCollector.add(new IncorrectIdentifierNameError(currentToken));
-            }
+    /**
+     * The same as {@link #advance()}, but only the last syntax token is kept, to validate the next one against it.
+     * Nothing but the errors is left after the input is parsed this way.
+     */
+    public void advanceDiscarding() {
+        advance();
+        if (syntaxTokens.size() > 1) {
+            syntaxTokens.discard(syntaxTokens.size() - 1);
+        }
+    }
 
-            if (currentToken.is(TokenType.Comma) && !bracketsContext.insideFunctionParams()) {
-                errorCollector.add(new CommaError(currentToken));
-            }
+    private void resolveUnaryMinus(int current, int next) {
+        boolean isMinus = tokens.valueIs(current, '-');
+        if (isMinus && tokens.is(next, TokenType.Number) && isLeftNotExpression()) {
+            skipCurrent = true;
+            syntaxTokens.addNegated(tokens, next, SyntaxTokenType.Number.ordinal(), tokens.position(current));
+            addResolved(TokenType.Number);
+        } else if (isMinus && isRightExpression(next) && isLeftNotExpression()) {
+            skipCurrent = true;
+            syntaxTokens.addMinusOne(SyntaxTokenType.Number.ordinal(), tokens.position(current));
+            addResolved(TokenType.Number);
+            syntaxTokens.addMultiply(SyntaxTokenType.Operator.ordinal(), tokens.position(current));
+            addResolved(TokenType.Operator);
+            process(next);
+        } else {
+            process(current);
         }
+    }
 
-        syntaxTokens.add(new SyntaxToken("END", rowTokens.size() + 1, SyntaxTokenType.End));
+    private boolean isLeftNotExpression() {
+        return previousRowType != TokenType.Number.ordinal()
+              && previousRowType != TokenType.Variable.ordinal()
+              && previousRowType != TokenType.ClosedBracket.ordinal();
+    }
+
+    private boolean isRightExpression(int token) {
+        return tokens.is(token, TokenType.Number)
+              || tokens.is(token, TokenType.Variable)
+              || tokens.is(token, TokenType.Function)
+              || tokens.is(token, TokenType.OpenBracket);
+    }
+
+    private void process(int current) {
+        transformToSyntaxTokenIfPossible(current);
+
+        if (tokens.is(current, TokenType.OpenBracket)) {
+            processOpenBracket(current);
+        }
+
+        if (tokens.is(current, TokenType.ClosedBracket)) {
+            processClosedBracket(current);
+        }
 
-        for (int i = 1; i < rowTokens.size(); i++) {
-            this.nextIndex = i;
-            SyntaxToken currentToken = syntaxTokens.get(i - 1);
-            SyntaxToken next = syntaxTokens.get(i);
-            positionValidator.validate(currentToken, next);
+        if (tokens.is(current, TokenType.Variable) && !tokens.isAlphabetic(current)) {
+            errorCollector.add(new IncorrectIdentifierNameError(tokens.rowToken(current)));
         }
 
+        if (tokens.is(current, TokenType.Comma) && !bracketsContext.insideFunctionParams()) {
+            errorCollector.add(new CommaError(tokens.rowToken(current)));
+        }
+
+        resolvedCount++;
+        previousType = tokens.type(current);
+    }
+
+    private void processEnd() {
+        // END is placed one after the count of resolved tokens, END itself included
+        syntaxTokens.addEnd(SyntaxTokenType.End.ordinal(), resolvedCount + 2);
+        validateLast();
         bracketsContext.collectErrors();
-        return syntaxTokens;
     }
 
-    private boolean isIncorrectName(RowToken currentToken) {
-        return !currentToken.value().chars().allMatch(Character::isAlphabetic);
+    private void addResolved(TokenType type) {
+        validateLast();
+        resolvedCount++;
+        previousType = type.ordinal();
     }
 
-    private void transformToSyntaxTokenIfPossible(RowToken currentToken) {
-        var lexemeType = SyntaxTokenType.of(currentToken.type());
+    private void transformToSyntaxTokenIfPossible(int current) {
+        var lexemeType = SyntaxTokenType.of(TOKEN_TYPES[tokens.type(current)]);
         if (lexemeType != null) {
-            addSyntaxToken(currentToken, lexemeType);
+            addSyntaxToken(current, lexemeType);
         }
     }
 
-    private void processClosedBracket(RowToken curr) {
-        var bracketType = bracketsContext.addClosedBracket(curr);
+    private void processClosedBracket(int current) {
+        var bracketType = bracketsContext.addClosedBracket(tokens.position(current));
         if (bracketType.equals(BracketType.FunctionBracket)) {
-            addSyntaxToken(curr, SyntaxTokenType.ClosedFunctionBracket);
+            addSyntaxToken(current, SyntaxTokenType.ClosedFunctionBracket);
         } else {
-            addSyntaxToken(curr, SyntaxTokenType.ClosedPrecedenceBracket);
+            addSyntaxToken(current, SyntaxTokenType.ClosedPrecedenceBracket);
         }
     }
 
-    private void processOpenBracket(RowToken curr) {
-        RowToken token = prev();
-        if (isOpenFunctionBracket(token)) {
-            bracketsContext.addOpenFunctionBracket(curr);
-            addSyntaxToken(curr, SyntaxTokenType.OpenFunctionBracket);
+    private void processOpenBracket(int current) {
+        if (previousType == TokenType.Function.ordinal()) {
+            bracketsContext.addOpenFunctionBracket(tokens.position(current));
+            addSyntaxToken(current, SyntaxTokenType.OpenFunctionBracket);
         } else {
-            bracketsContext.addOpenPrecedenceBracket(curr);
-            addSyntaxToken(curr, SyntaxTokenType.OpenPrecedenceBracket);
+            bracketsContext.addOpenPrecedenceBracket(tokens.position(current));
+            addSyntaxToken(current, SyntaxTokenType.OpenPrecedenceBracket);
         }
     }
 
-    private boolean isOpenFunctionBracket(RowToken token) {
-        return prev() != null && token.is(TokenType.Function);
+    private void addSyntaxToken(int current, SyntaxTokenType type) {
+        syntaxTokens.add(tokens, current, type.ordinal());
+        validateLast();
     }
 
-    private RowToken prev() {
-        try {
-            return rowTokens.get(nextIndex - 2);
-        } catch (IndexOutOfBoundsException e) {
-            return null;
+    private void validateLast() {
+        int last = syntaxTokens.size() - 1;
+        if (last > 0) {
+            positionValidator.validate(syntaxTokens, last - 1, last);
         }
     }
 
-    private void addSyntaxToken(RowToken token, SyntaxTokenType type) {
-        syntaxTokens.add(new SyntaxToken(token.value(), token.position(), type));
-    }
-
     public enum SyntaxTokenType {
         Start,
         End,
@@ -122,17 +207,17 @@ public class SyntaxParser {
         OpenPrecedenceBracket,
         ClosedPrecedenceBracket;
 
-        private static final Map<TokenType, SyntaxTokenType> ONE_TO_ONE_MAPPING = Map.ofEntries(
-              Map.entry(TokenType.Start, SyntaxTokenType.Start),
-              Map.entry(TokenType.End, SyntaxTokenType.End),
-              Map.entry(TokenType.Number, SyntaxTokenType.Number),
-              Map.entry(TokenType.Variable, SyntaxTokenType.Variable),
-              Map.entry(TokenType.Function, SyntaxTokenType.Function),
-              Map.entry(TokenType.Operator, SyntaxTokenType.Operator),
-              Map.entry(TokenType.Comma, SyntaxTokenType.Comma));
-
         public static SyntaxTokenType of(TokenType type) {
-            return ONE_TO_ONE_MAPPING.get(type);
+            return switch (type) {
+                case Start -> SyntaxTokenType.Start;
+                case End -> SyntaxTokenType.End;
+                case Number -> SyntaxTokenType.Number;
+                case Variable -> SyntaxTokenType.Variable;
+                case Function -> SyntaxTokenType.Function;
+                case Operator -> SyntaxTokenType.Operator;
+                case Comma -> SyntaxTokenType.Comma;
+                case OpenBracket, ClosedBracket -> null;
+            };
         }
     }
 
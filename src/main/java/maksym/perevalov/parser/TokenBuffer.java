@@ -0,0 +1,257 @@
+package maksym.perevalov.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import maksym.perevalov.parser.SyntaxParser.SyntaxToken;
+import maksym.perevalov.parser.SyntaxParser.SyntaxTokenType;
+import maksym.perevalov.parser.Tokenizer.RowToken;
+import maksym.perevalov.parser.Tokenizer.TokenType;
+
+/**
+ * Tokens kept in parallel int columns instead of one record per token.
+ * A token's text is a range of a char array: the source itself when the whole input is in memory,
+ * or a pool with lexemes only when the input is streamed. Buffers made by {@link #sharingText()}
+ * point into the same text, so tokens are moved between stages without copying chars.
+ * The type column holds either a {@link TokenType} or a {@link SyntaxTokenType} ordinal,
+ * depending on the stage that filled the buffer.
+ */
+public class TokenBuffer {
+    private static final int TYPE_MASK = 0xFF;
+    private static final int NEGATIVE = 1 << 8;
+    private static final int SYNTHETIC = 1 << 9;
+    private static final char[] SYNTHETIC_TEXT = "1*STARTEND".toCharArray();
+    private static final int ONE = 0, MULTIPLY = 1, START = 2, END = 7;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final SyntaxTokenType[] SYNTAX_TOKEN_TYPES = SyntaxTokenType.values();
+
+    private final TokenBuffer textOwner;
+    private char[] text;
+    private int textLength;
+    private int[] types = new int[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int[] positions = new int[16];
+    private int size;
+
+    private TokenBuffer(TokenBuffer textOwner, char[] text, int textLength) {
+        this.textOwner = textOwner == null ? this : textOwner;
+        this.text = text;
+        this.textLength = textLength;
+    }
+
+    public static TokenBuffer over(char[] source) {
+        return new TokenBuffer(null, source, source.length);
+    }
+
+    public static TokenBuffer pooled() {
+        return new TokenBuffer(null, new char[256], 0);
+    }
+
+    public static TokenBuffer ofRowTokens(List<RowToken> tokens) {
+        var buffer = pooled();
+        for (var token : tokens) {
+            buffer.add(token.type().ordinal(), token.value(), token.position());
+        }
+        return buffer;
+    }
+
+    public static TokenBuffer ofSyntaxTokens(List<SyntaxToken> tokens) {
+        var buffer = pooled();
+        for (var token : tokens) {
+            buffer.add(token.type().ordinal(), token.value(), token.position());
+        }
+        return buffer;
+    }
+
+    private void add(int type, String value, int position) {
+        add(type, appendText(value.toCharArray(), 0, value.length()), value.length(), position);
+    }
+
+    /**
+     * Empties the buffer and points it to the first {@code length} chars of {@code source}, keeping its arrays for the next input.
+     * Buffers sharing text with this one see the new text too and have to be {@link #clear() cleared}.
+     */
+    public void reset(char[] source, int length) {
+        if (textOwner != this) {
+            throw new IllegalStateException("Text is owned by another buffer");
+        }
+        text = source;
+        textLength = length;
+        size = 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public TokenBuffer sharingText() {
+        return new TokenBuffer(textOwner, null, 0);
+    }
+
+    public char[] text() {
+        return textOwner.text;
+    }
+
+    public int textLength() {
+        return textOwner.textLength;
+    }
+
+    public int appendText(char[] chars, int from, int length) {
+        if (textOwner != this) {
+            throw new IllegalStateException("Text is owned by another buffer");
+        }
+        if (textLength + length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+        }
+        System.arraycopy(chars, from, text, textLength, length);
+        int start = textLength;
+        textLength += length;
+        return start;
+    }
+
+    public void add(int type, int start, int length, int position) {
+        add(type, 0, start, length, position);
+    }
+
+    public void addStart(int type) {
+        add(type, SYNTHETIC, START, 5, 0);
+    }
+
+    public void addEnd(int type, int position) {
+        add(type, SYNTHETIC, END, 3, position);
+    }
+
+    public void addMinusOne(int type, int position) {
+        add(type, SYNTHETIC | NEGATIVE, ONE, 1, position);
+    }
+
+    public void addMultiply(int type, int position) {
+        add(type, SYNTHETIC, MULTIPLY, 1, position);
+    }
+
+    /**
+     * Adds a token of {@code other} buffer, that has to share text with this one.
+     */
+    public void add(TokenBuffer other, int index, int type) {
+        add(type, other.types[index] & ~TYPE_MASK, other.starts[index], other.lengths[index], other.positions[index]);
+    }
+
+    public void addNegated(TokenBuffer other, int index, int type, int position) {
+        add(type, (other.types[index] & ~TYPE_MASK) ^ NEGATIVE, other.starts[index], other.lengths[index], position);
+    }
+
+    private void add(int type, int flags, int start, int length, int position) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        types[size] = type | flags;
+        starts[size] = start;
+        lengths[size] = length;
+        positions[size] = position;
+        size++;
+    }
+
+    /**
+     * Drops the first {@code count} tokens, their text stays in place for tokens copied to other buffers.
+     */
+    public void discard(int count) {
+        int rest = size - count;
+        System.arraycopy(types, count, types, 0, rest);
+        System.arraycopy(starts, count, starts, 0, rest);
+        System.arraycopy(lengths, count, lengths, 0, rest);
+        System.arraycopy(positions, count, positions, 0, rest);
+        size = rest;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int type(int index) {
+        return types[index] & TYPE_MASK;
+    }
+
+    public boolean is(int index, TokenType type) {
+        return type(index) == type.ordinal();
+    }
+
+    public boolean is(int index, SyntaxTokenType type) {
+        return type(index) == type.ordinal();
+    }
+
+    public int position(int index) {
+        return positions[index];
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    public boolean isNegative(int index) {
+        return (types[index] & NEGATIVE) != 0;
+    }
+
+    public char firstChar(int index) {
+        return isNegative(index) ? '-' : chars(index)[starts[index]];
+    }
+
+    public boolean valueIs(int index, char c) {
+        return !isNegative(index) && lengths[index] == 1 && chars(index)[starts[index]] == c;
+    }
+
+    public boolean isAlphabetic(int index) {
+        if (isNegative(index)) {
+            return false;
+        }
+        var chars = chars(index);
+        for (int i = starts[index]; i < starts[index] + lengths[index]; i++) {
+            if (!Character.isAlphabetic(chars[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String value(int index) {
+        var value = new String(chars(index), starts[index], lengths[index]);
+        return isNegative(index) ? "-" + value : value;
+    }
+
+    private char[] chars(int index) {
+        return (types[index] & SYNTHETIC) != 0 ? SYNTHETIC_TEXT : textOwner.text;
+    }
+
+    public RowToken rowToken(int index) {
+        return new RowToken(value(index), positions[index], TOKEN_TYPES[type(index)]);
+    }
+
+    public SyntaxToken syntaxToken(int index) {
+        return new SyntaxToken(value(index), positions[index], SYNTAX_TOKEN_TYPES[type(index)]);
+    }
+
+    public List<RowToken> toRowTokens() {
+        var tokens = new ArrayList<RowToken>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(rowToken(i));
+        }
+        return tokens;
+    }
+
+    public List<SyntaxToken> toSyntaxTokens() {
+        var tokens = new ArrayList<SyntaxToken>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(syntaxToken(i));
+        }
+        return tokens;
+    }
+}
@@ -1,19 +1,27 @@
 package maksym.perevalov.parser;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import maksym.perevalov.tree.MathContext;
-import maksym.perevalov.parser.ParserError.UnknownTokenError;
 
 public class Tokenizer {
-    private static final String PATTERN = "(%s)|(%s)|(%s)|(%s)|(%s)|(%s)".formatted(
-          TokenType.Number.pattern, TokenType.Variable.pattern, TokenType.Comma.pattern,
-          TokenType.ClosedBracket.pattern, TokenType.OpenBracket.pattern, TokenType.Operator.pattern
-    );
-    private static final String NO_REGEXP = "";
+    public static final int CHUNK_SIZE = 8192;
+    public static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+    // the longest encoding of a char in any charset fits, so every window decodes at least one
+    public static final long MIN_MAPPED_WINDOW_SIZE = 16;
+    private static final CharClass[] ASCII_CLASSES = asciiClasses();
 
     private final MathContext mathContext;
     private final ErrorCollector errorCollector;
@@ -24,64 +32,302 @@ public class Tokenizer {
     }
 
     public List<RowToken> tokenize(String input) {
-        var tokens = new ArrayList<>(List.of(RowToken.startToken()));
-        Pattern pattern = Pattern.compile(PATTERN);
-        Matcher matcher = pattern.matcher(input);
-        int position = 0;
-
-        while (matcher.find()) {
-            position = matcher.start() + 1;
-            var value = matcher.group();
-            var type = getType(value);
-            if (type == null) {
-                errorCollector.add(new UnknownTokenError(value, position));
-            } else {
-                tokens.add(new RowToken(value, position, type));
+        return scan(input).toRowTokens();
+    }
+
+    public TokenBuffer scan(String input) {
+        return scan(TokenBuffer.over(input.toCharArray()));
+    }
+
+    // tokens are made by TokenBuffer.over or reset, the text is scanned in place
+    public TokenBuffer scan(TokenBuffer tokens) {
+        var scanner = new Scanner(tokens, false);
+        scanner.feed(tokens.text(), 0, tokens.textLength());
+        scanner.finish();
+        return tokens;
+    }
+
+    // calls onChunk like the streaming methods do, so consumed tokens can be discarded on the go
+    public void scan(TokenBuffer tokens, int chunkSize, Runnable onChunk) {
+        var scanner = new Scanner(tokens, false);
+        var source = tokens.text();
+        int length = tokens.textLength();
+        for (int from = 0; from < length; from += chunkSize) {
+            scanner.feed(source, from, Math.min(length, from + chunkSize));
+            onChunk.run();
+            if (errorCollector.isFull()) {
+                return;
             }
         }
+        scanner.finish();
+        onChunk.run();
+    }
 
-        tokens.add(RowToken.endToken(position + 1));
-        return tokens;
+    // tokens has to be pooled, reading stops without the end token once the error collector is full
+    public void tokenize(Reader reader, TokenBuffer tokens, Runnable onChunk) throws IOException {
+        var scanner = new Scanner(tokens, true);
+        var chunk = new char[CHUNK_SIZE];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            scanner.feed(chunk, 0, read);
+            onChunk.run();
+            if (errorCollector.isFull()) {
+                return;
+            }
+        }
+        scanner.finish();
+        onChunk.run();
     }
 
-    private Tokenizer.TokenType getType(String value) {
-        if (value.matches(TokenType.Number.pattern)) {
-            return TokenType.Number;
-        } else if (value.matches(TokenType.Variable.pattern)) {
-            if (mathContext.isFunction(value)) {
-                return TokenType.Function;
-            } else {
-                return TokenType.Variable;
+    public void tokenize(ReadableByteChannel channel, Charset charset, TokenBuffer tokens, Runnable onChunk) throws IOException {
+        tokenize(Channels.newReader(channel, charset.newDecoder(), CHUNK_SIZE), tokens, onChunk);
+    }
+
+    public void tokenize(Path file, Charset charset, TokenBuffer tokens, Runnable onChunk) throws IOException {
+        tokenize(file, charset, MAPPED_WINDOW_SIZE, tokens, onChunk);
+    }
+
+    public void tokenize(Path file, Charset charset, long windowSize, TokenBuffer tokens, Runnable onChunk) throws IOException {
+        if (windowSize < MIN_MAPPED_WINDOW_SIZE) {
+            throw new IllegalArgumentException("Window of %s bytes is smaller than %s".formatted(windowSize, MIN_MAPPED_WINDOW_SIZE));
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var scanner = new Scanner(tokens, true);
+            var decoder = charset.newDecoder();
+            var chunk = CharBuffer.allocate(CHUNK_SIZE);
+            long size = channel.size();
+            long windowStart = 0;
+            do {
+                long mappedSize = Math.min(windowSize, size - windowStart);
+                var window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, mappedSize);
+                boolean lastWindow = windowStart + mappedSize == size;
+                decode(decoder, window, chunk, lastWindow, scanner, onChunk);
+                if (errorCollector.isFull()) {
+                    return;
+                }
+                // bytes of a char split by the window border are decoded again with the next window
+                windowStart += window.position();
+            } while (windowStart < size);
+            decoder.flush(chunk);
+            scanner.feed(chunk.array(), 0, chunk.position());
+            scanner.finish();
+            onChunk.run();
+        }
+    }
+
+    private void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chunk, boolean endOfInput, Scanner scanner, Runnable onChunk) throws IOException {
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chunk, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            scanner.feed(chunk.array(), 0, chunk.position());
+            onChunk.run();
+            chunk.clear();
+            if (result.isUnderflow() || errorCollector.isFull()) {
+                return;
             }
-        } else if (value.matches(TokenType.Operator.pattern)) {
-            return TokenType.Operator;
-        } else if (value.equals(",")) {
-            return TokenType.Comma;
-        } else if (value.equals("(")) {
-            return TokenType.OpenBracket;
-        } else if (value.equals(")")) {
-            return TokenType.ClosedBracket;
         }
-        return null;
     }
 
-    public enum TokenType {
-        Start(NO_REGEXP),
-        End(NO_REGEXP),
-        Number("\\d+(\\.\\d+)?"),
-        Variable("[^+\\-*/^(),\\d\\s]+"),
-        Function(NO_REGEXP),
-        Operator("[+\\-*/^]"),
-        OpenBracket("\\("),
-        ClosedBracket("\\)"),
-        Comma(",");
+    private TokenType getType(CharClass charClass, char[] text, int start, int length) {
+        return switch (charClass) {
+            case Digit -> TokenType.Number;
+            case Identifier -> mathContext.isFunction(text, start, length) ? TokenType.Function : TokenType.Variable;
+            case Operator -> TokenType.Operator;
+            case Comma -> TokenType.Comma;
+            case OpenBracket -> TokenType.OpenBracket;
+            case ClosedBracket -> TokenType.ClosedBracket;
+            case Whitespace -> throw new IllegalStateException("Whitespace is not a token");
+        };
+    }
+
+    // only ASCII digits and whitespace are special, as \d and \s are without UNICODE_CHARACTER_CLASS,
+    // so both halves of a surrogate pair are a part of an identifier
+    private static CharClass classOf(char c) {
+        return c < ASCII_CLASSES.length ? ASCII_CLASSES[c] : CharClass.Identifier;
+    }
+
+    private static CharClass[] asciiClasses() {
+        var classes = new CharClass[128];
+        for (int c = 0; c < classes.length; c++) {
+            classes[c] = switch (c) {
+                case ' ', '\t', '\n', 0x0B, '\f', '\r' -> CharClass.Whitespace;
+                case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> CharClass.Digit;
+                case '+', '-', '*', '/', '^' -> CharClass.Operator;
+                case '(' -> CharClass.OpenBracket;
+                case ')' -> CharClass.ClosedBracket;
+                case ',' -> CharClass.Comma;
+                default -> CharClass.Identifier;
+            };
+        }
+        return classes;
+    }
 
-        public final String pattern;
+    // a lexeme can be split by a chunk border, with copyText its chars are appended to the buffer text
+    // as soon as they are seen, without it tokens point into the text itself
+    private final class Scanner {
+        private final TokenBuffer tokens;
+        private final boolean copyText;
+        private Lexeme lexeme = Lexeme.None;
+        private int lexemeStart;
+        private int textStart;
+        private int from;
+        private int chunkOffset;
+        private int scannedEnd;
+        private int position;
 
-        TokenType(String regexp) {
-            this.pattern = regexp;
+        Scanner(TokenBuffer tokens, boolean copyText) {
+            this.tokens = tokens;
+            this.copyText = copyText;
+            tokens.addStart(TokenType.Start.ordinal());
         }
 
+        // a copied chunk always starts at 0, ranges of the text follow one another in the same array
+        void feed(char[] chunk, int begin, int end) {
+            int i = begin;
+            while (i < end) {
+                var charClass = classOf(chunk[i]);
+                switch (lexeme) {
+                    case None -> {
+                        switch (charClass) {
+                            case Whitespace -> {
+                            }
+                            case Digit -> begin(Lexeme.Integer, i);
+                            case Identifier -> begin(Lexeme.Identifier, i);
+                            default -> {
+                                int start = copyText ? tokens.appendText(chunk, i, 1) : chunkOffset + i;
+                                emit(chunkOffset + i, start, 1, getType(charClass, null, start, 1));
+                            }
+                        }
+                        i++;
+                    }
+                    case Integer -> {
+                        if (charClass == CharClass.Digit) {
+                            i++;
+                        } else if (chunk[i] == '.') {
+                            lexeme = Lexeme.Dot;
+                            i++;
+                        } else {
+                            emitLexeme(chunk, i, CharClass.Digit);
+                        }
+                    }
+                    case Dot -> {
+                        if (charClass == CharClass.Digit) {
+                            lexeme = Lexeme.Fraction;
+                            i++;
+                        } else {
+                            copy(chunk, i);
+                            splitTrailingDot(chunkOffset + i - 1);
+                        }
+                    }
+                    case Fraction -> {
+                        if (charClass == CharClass.Digit) {
+                            i++;
+                        } else {
+                            emitLexeme(chunk, i, CharClass.Digit);
+                        }
+                    }
+                    case Identifier -> {
+                        if (charClass == CharClass.Identifier) {
+                            i++;
+                        } else {
+                            emitLexeme(chunk, i, CharClass.Identifier);
+                        }
+                    }
+                }
+            }
+            if (lexeme != Lexeme.None) {
+                copy(chunk, end);
+            }
+            scannedEnd = chunkOffset + end;
+            if (copyText) {
+                from = 0;
+                chunkOffset += end;
+            }
+        }
+
+        void finish() {
+            switch (lexeme) {
+                case None -> {
+                }
+                case Integer, Fraction -> emitLexeme(scannedEnd, CharClass.Digit);
+                case Dot -> {
+                    splitTrailingDot(scannedEnd - 1);
+                    emitLexeme(scannedEnd, CharClass.Identifier);
+                }
+                case Identifier -> emitLexeme(scannedEnd, CharClass.Identifier);
+            }
+            tokens.addEnd(TokenType.End.ordinal(), position + 1);
+        }
+
+        private void begin(Lexeme lexeme, int index) {
+            this.lexeme = lexeme;
+            this.lexemeStart = chunkOffset + index;
+            this.textStart = copyText ? tokens.textLength() : lexemeStart;
+            this.from = index;
+        }
+
+        private void copy(char[] chunk, int to) {
+            if (copyText) {
+                tokens.appendText(chunk, from, to - from);
+            }
+            from = to;
+        }
+
+        private void emitLexeme(char[] chunk, int end, CharClass charClass) {
+            copy(chunk, end);
+            emitLexeme(chunkOffset + end, charClass);
+        }
+
+        private void emitLexeme(int end, CharClass charClass) {
+            int length = end - lexemeStart;
+            emit(lexemeStart, textStart, length, getType(charClass, tokens.text(), textStart, length));
+        }
+
+        // "1." is not a number, the dot starts an identifier, as the regex alternation did
+        private void splitTrailingDot(int dotStart) {
+            emitLexeme(dotStart, CharClass.Digit);
+            textStart += dotStart - lexemeStart;
+            lexemeStart = dotStart;
+            lexeme = Lexeme.Identifier;
+        }
+
+        private void emit(int start, int textStart, int length, TokenType type) {
+            position = start + 1;
+            lexeme = Lexeme.None;
+            tokens.add(type.ordinal(), textStart, length, position);
+        }
+    }
+
+    private enum Lexeme {
+        None,
+        Integer,
+        Dot,
+        Fraction,
+        Identifier
+    }
+
+    private enum CharClass {
+        Whitespace,
+        Digit,
+        Identifier,
+        Operator,
+        OpenBracket,
+        ClosedBracket,
+        Comma
+    }
+
+    public enum TokenType {
+        Start,
+        End,
+        Number,
+        Variable,
+        Function,
+        Operator,
+        OpenBracket,
+        ClosedBracket,
+        Comma
     }
 
     public record RowToken(String value, int position, TokenType type) {
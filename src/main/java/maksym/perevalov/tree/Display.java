@@ -1,5 +1,9 @@
 package maksym.perevalov.tree;
 
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.stream.Stream;
+
 import hu.webarticum.treeprinter.SimpleTreeNode;
 import hu.webarticum.treeprinter.printer.traditional.TraditionalTreePrinter;
 import hu.webarticum.treeprinter.text.AnsiFormat;
@@ -17,13 +21,29 @@ public class Display {
         new TraditionalTreePrinter().print(viewableNode);
     }
 
-    private static SimpleTreeNode toViewableTreeNode(TreeNode node) {
+    private static SimpleTreeNode toViewableTreeNode(TreeNode root) {
+        var viewableRoot = toViewableNode(root);
+        // nodes with their viewable nodes, children are added to a parent left first
+        var nodes = new ArrayDeque<TreeNode>();
+        var viewableNodes = new ArrayDeque<SimpleTreeNode>();
+        nodes.push(root);
+        viewableNodes.push(viewableRoot);
+        while (!nodes.isEmpty()) {
+            var node = nodes.pop();
+            var viewableNode = viewableNodes.pop();
+            var children = Stream.of(node.left(), node.right()).filter(Objects::nonNull).toList();
+            var viewableChildren = children.stream().map(Display::toViewableNode).toList();
+            viewableChildren.forEach(viewableNode::addChild);
+            for (int i = children.size() - 1; i >= 0; i--) {
+                nodes.push(children.get(i));
+                viewableNodes.push(viewableChildren.get(i));
+            }
+        }
+        return viewableRoot;
+    }
+
+    private static SimpleTreeNode toViewableNode(TreeNode node) {
         var value = node.isBrackets() ? "[" + node.value().value() + "]" : node.value().value();
-        var viewableNode = new SimpleTreeNode(ConsoleText.of(value).format(AnsiFormat.GREEN.compose(AnsiFormat.BOLD)));
-        if (node.left() != null)
-            viewableNode.addChild(toViewableTreeNode(node.left()));
-        if (node.right() != null)
-            viewableNode.addChild(toViewableTreeNode(node.right()));
-        return viewableNode;
+        return new SimpleTreeNode(ConsoleText.of(value).format(AnsiFormat.GREEN.compose(AnsiFormat.BOLD)));
     }
 }
@@ -0,0 +1,345 @@
+package maksym.perevalov.tree;
+
+import static maksym.perevalov.tree.PostfixProgram.*;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Expression tree kept in parallel arrays instead of one {@link TreeNode} per node. Nodes are stored in post-order,
+ * so children always go before their parent and the root is the last node, which lets every query be a loop over the arrays.
+ * Opcodes are the ones of {@link PostfixProgram}, a missing child is -1, and the operand of a constant, a variable
+ * or a function is an index into the string table, that keeps number literals along with names so nothing is lost on conversion.
+ * A node may be the child of more than one node when the tree is a DAG made by a {@link TreeNodeFactory}, it is then computed once.
+ */
+public final class FlatTree {
+    public static final int NONE = -1;
+    private static final int BRACKETS_FLAG = 0x40;
+    private static final int OPCODE_MASK = BRACKETS_FLAG - 1;
+
+    private final byte[] opcodes;
+    private final int[] lefts;
+    private final int[] rights;
+    private final double[] literals;
+    private final int[] operands;
+    private final String[] strings;
+    private final int size;
+
+    private FlatTree(byte[] opcodes, int[] lefts, int[] rights, double[] literals, int[] operands, String[] strings, int size) {
+        this.opcodes = opcodes;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.literals = literals;
+        this.operands = operands;
+        this.strings = strings;
+        this.size = size;
+    }
+
+    public static FlatTree of(TreeNode root) {
+        var builder = new Builder(16);
+        var strings = new HashMap<String, Integer>();
+        var children = new int[16];
+        int childCount = 0;
+        // nodes shared by a factory are added once, so the tree stays a DAG
+        var sharedIndexes = new IdentityHashMap<TreeNode, Integer>();
+        // post-order walk, a node is added once both of its children are
+        var nodes = new ArrayDeque<TreeNode>();
+        var expanded = new ArrayDeque<Boolean>();
+        nodes.push(root);
+        expanded.push(false);
+        while (!nodes.isEmpty()) {
+            var node = nodes.peek();
+            if (!expanded.peek()) {
+                var sharedIndex = node.factory() == null ? null : sharedIndexes.get(node);
+                if (sharedIndex != null) {
+                    nodes.pop();
+                    expanded.pop();
+                    if (childCount == children.length) {
+                        children = Arrays.copyOf(children, childCount * 2);
+                    }
+                    children[childCount++] = sharedIndex;
+                    continue;
+                }
+                expanded.pop();
+                expanded.push(true);
+                if (node.hasRight()) {
+                    nodes.push(node.right());
+                    expanded.push(false);
+                }
+                if (node.hasLeft()) {
+                    nodes.push(node.left());
+                    expanded.push(false);
+                }
+                continue;
+            }
+            nodes.pop();
+            expanded.pop();
+            int right = node.hasRight() ? children[--childCount] : NONE;
+            int left = node.hasLeft() ? children[--childCount] : NONE;
+            int index = builder.add(node, left, right, strings);
+            if (node.factory() != null) {
+                sharedIndexes.put(node, index);
+            }
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            children[childCount++] = index;
+        }
+        return builder.build(strings);
+    }
+
+    static FlatTree of(PostfixProgram program) {
+        var builder = new Builder(program.size());
+        var strings = new String[program.symbolCount() + program.constantCount()];
+        for (int i = 0; i < program.symbolCount(); i++) {
+            strings[i] = program.symbol(i);
+        }
+        for (int i = 0; i < program.constantCount(); i++) {
+            strings[program.symbolCount() + i] = program.literal(i);
+        }
+        var stack = new int[program.size()];
+        int stackSize = 0;
+        for (int i = 0; i < program.size(); i++) {
+            int operand = program.operand(i);
+            switch (program.opcode(i)) {
+                case CONSTANT -> stack[stackSize++] = builder.add(CONSTANT, NONE, NONE, program.constant(operand), program.symbolCount() + operand);
+                case VARIABLE -> stack[stackSize++] = builder.add(VARIABLE, NONE, NONE, 0, operand);
+                case BRACKETS -> builder.markBrackets(stack[stackSize - 1]);
+                case CALL -> {
+                    int arity = program.arity(i);
+                    stackSize -= arity;
+                    stack[stackSize] = builder.add(CALL, arity > 0 ? stack[stackSize] : NONE, arity > 1 ? stack[stackSize + 1] : NONE, 0, operand);
+                    stackSize++;
+                }
+                default -> {
+                    stackSize--;
+                    stack[stackSize - 1] = builder.add(program.opcode(i), stack[stackSize - 1], stack[stackSize], 0, operand);
+                }
+            }
+        }
+        return builder.build(strings);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int root() {
+        return size - 1;
+    }
+
+    public int opcode(int node) {
+        return opcodes[node] & OPCODE_MASK;
+    }
+
+    public boolean isBrackets(int node) {
+        return (opcodes[node] & BRACKETS_FLAG) != 0;
+    }
+
+    public int left(int node) {
+        return lefts[node];
+    }
+
+    public int right(int node) {
+        return rights[node];
+    }
+
+    public double literal(int node) {
+        return literals[node];
+    }
+
+    public String text(int node) {
+        return strings[operands[node]];
+    }
+
+    public int height() {
+        var heights = new int[size];
+        for (int i = 0; i < size; i++) {
+            heights[i] = 1 + Math.max(lefts[i] == NONE ? 0 : heights[lefts[i]], rights[i] == NONE ? 0 : heights[rights[i]]);
+        }
+        return heights[root()];
+    }
+
+    /**
+     * The weight of the tree, a node that is shared by a DAG is counted every time it is used.
+     */
+    public int weight() {
+        var weights = new int[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = 1 + (lefts[i] == NONE ? 0 : weights[lefts[i]]) + (rights[i] == NONE ? 0 : weights[rights[i]]);
+        }
+        return weights[root()];
+    }
+
+    /**
+     * The same result as {@link TreeNode#compute(MathContext)}, a function is applied to the children it has and a missing operand is 0.
+     */
+    public double compute(MathContext context) {
+        var results = new double[size];
+        for (int i = 0; i < size; i++) {
+            double left = lefts[i] == NONE ? 0 : results[lefts[i]];
+            double right = rights[i] == NONE ? 0 : results[rights[i]];
+            results[i] = switch (opcode(i)) {
+                case CONSTANT -> literals[i];
+                case VARIABLE -> context.readVariable(strings[operands[i]]);
+                case ADD -> left + right;
+                case SUBTRACT -> left - right;
+                case MULTIPLY -> left * right;
+                case DIVIDE -> left / right;
+                case POWER -> MathElement.Power.apply(left, right);
+                case CALL -> {
+                    var function = context.function(strings[operands[i]]);
+                    int arguments = (lefts[i] == NONE ? 0 : 1) + (rights[i] == NONE ? 0 : 1);
+                    yield lefts[i] == NONE ? function.apply(arguments, right, 0) : function.apply(arguments, left, right);
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + opcode(i));
+            };
+        }
+        return results[root()];
+    }
+
+    public String toExpressionString() {
+        var expression = new StringBuilder();
+        // node indexes still to print and text to append, the next one on top
+        var parts = new ArrayDeque<Object>();
+        parts.push(root());
+        while (!parts.isEmpty()) {
+            switch (parts.pop()) {
+                case String text -> expression.append(text);
+                case Integer node -> pushParts(node, parts);
+                default -> throw new IllegalStateException("Unexpected part");
+            }
+        }
+        return expression.toString();
+    }
+
+    private void pushParts(int node, ArrayDeque<Object> parts) {
+        if (isBrackets(node)) {
+            parts.push(")");
+        }
+        switch (opcode(node)) {
+            case CONSTANT, VARIABLE -> parts.push(text(node));
+            case CALL -> {
+                parts.push(")");
+                if (rights[node] != NONE) parts.push(rights[node]);
+                if (rights[node] != NONE && lefts[node] != NONE) parts.push(", ");
+                if (lefts[node] != NONE) parts.push(lefts[node]);
+                parts.push(text(node) + "(");
+            }
+            default -> {
+                parts.push(rights[node]);
+                parts.push(" " + operatorText(opcode(node)) + " ");
+                parts.push(lefts[node]);
+            }
+        }
+        if (isBrackets(node)) {
+            parts.push("(");
+        }
+    }
+
+    public TreeNode toTreeNode() {
+        var numbers = new MathElement[strings.length];
+        var variables = new MathElement[strings.length];
+        var nodes = new TreeNode[size];
+        for (int i = 0; i < size; i++) {
+            int operand = operands[i];
+            var element = switch (opcode(i)) {
+                case CONSTANT -> numbers[operand] == null ? numbers[operand] = new MathElement.MNumber(strings[operand]) : numbers[operand];
+                case VARIABLE -> variables[operand] == null ? variables[operand] = new MathElement.Varaible(strings[operand]) : variables[operand];
+                case CALL -> new MathElement.Function(strings[operand]);
+                case ADD -> new MathElement.Plus();
+                case SUBTRACT -> new MathElement.Minus();
+                case MULTIPLY -> new MathElement.Multiply();
+                case POWER -> new MathElement.Power();
+                default -> new MathElement.Divide();
+            };
+            nodes[i] = new TreeNode(element, lefts[i] == NONE ? null : nodes[lefts[i]], rights[i] == NONE ? null : nodes[rights[i]], isBrackets(i));
+        }
+        return nodes[root()];
+    }
+
+    private static String operatorText(int opcode) {
+        return switch (opcode) {
+            case ADD -> "+";
+            case SUBTRACT -> "-";
+            case MULTIPLY -> "*";
+            case DIVIDE -> "/";
+            case POWER -> "^";
+            default -> throw new IllegalStateException("Not an operator opcode " + opcode);
+        };
+    }
+
+    private static final class Builder {
+        private byte[] opcodes;
+        private int[] lefts;
+        private int[] rights;
+        private double[] literals;
+        private int[] operands;
+        private int size;
+
+        Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            opcodes = new byte[capacity];
+            lefts = new int[capacity];
+            rights = new int[capacity];
+            literals = new double[capacity];
+            operands = new int[capacity];
+        }
+
+        int add(TreeNode node, int left, int right, Map<String, Integer> strings) {
+            int index = switch (node.value()) {
+                case MathElement.MNumber number ->
+                      add(CONSTANT, left, right, Double.parseDouble(number.value()), string(number.value(), strings));
+                case MathElement.Varaible variable -> add(VARIABLE, left, right, 0, string(variable.value(), strings));
+                case MathElement.Function function -> add(CALL, left, right, 0, string(function.value(), strings));
+                case MathElement.Plus _ -> add(ADD, left, right, 0, 0);
+                case MathElement.Minus _ -> add(SUBTRACT, left, right, 0, 0);
+                case MathElement.Multiply _ -> add(MULTIPLY, left, right, 0, 0);
+                case MathElement.Divide _ -> add(DIVIDE, left, right, 0, 0);
+                case MathElement.Power _ -> add(POWER, left, right, 0, 0);
+            };
+            if (node.isBrackets()) {
+                markBrackets(index);
+            }
+            return index;
+        }
+
+        private static int string(String value, Map<String, Integer> strings) {
+            return strings.computeIfAbsent(value, _ -> strings.size());
+        }
+
+        int add(int opcode, int left, int right, double literal, int operand) {
+            if (size == opcodes.length) {
+                int capacity = size * 2;
+                opcodes = Arrays.copyOf(opcodes, capacity);
+                lefts = Arrays.copyOf(lefts, capacity);
+                rights = Arrays.copyOf(rights, capacity);
+                literals = Arrays.copyOf(literals, capacity);
+                operands = Arrays.copyOf(operands, capacity);
+            }
+            opcodes[size] = (byte) opcode;
+            lefts[size] = left;
+            rights[size] = right;
+            literals[size] = literal;
+            operands[size] = operand;
+            return size++;
+        }
+
+        void markBrackets(int node) {
+            opcodes[node] |= BRACKETS_FLAG;
+        }
+
+        FlatTree build(Map<String, Integer> strings) {
+            var table = new String[strings.size()];
+            strings.forEach((value, index) -> table[index] = value);
+            return build(table);
+        }
+
+        FlatTree build(String[] strings) {
+            return new FlatTree(opcodes, lefts, rights, literals, operands, strings, size);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package maksym.perevalov.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import maksym.perevalov.tree.NativeFunction.Intrinsic;
+
+/**
+ * Immutable symbol table of the functions formulas may call. Names are kept in an open addressing hash table,
+ * so the tokenizer looks an identifier up right in its characters, without making a string of it.
+ */
+public final class FunctionRegistry {
+    private static final Map<String, NativeFunction> BUILT_INS = builtInFunctions();
+
+    private final List<NativeFunction> functions;
+    private final NativeFunction[] table;
+
+    private FunctionRegistry(List<NativeFunction> functions) {
+        this.functions = List.copyOf(functions);
+        this.table = new NativeFunction[Integer.highestOneBit(Math.max(1, functions.size()) * 2) * 2];
+        for (var function : functions) {
+            int index = index(function.name().hashCode());
+            while (table[index] != null) {
+                index = (index + 1) & (table.length - 1);
+            }
+            table[index] = function;
+        }
+    }
+
+    /**
+     * sin, cos, tan, sqrt, exp, log, abs, pow, min and max, as {@link Math} computes them.
+     */
+    public static FunctionRegistry builtIns() {
+        return new FunctionRegistry(new ArrayList<>(BUILT_INS.values()));
+    }
+
+    /**
+     * Built-in functions of the given names, a name that is not built in is known to the parser, but has no implementation.
+     */
+    public static FunctionRegistry of(List<String> names) {
+        var functions = new LinkedHashMap<String, NativeFunction>();
+        for (var name : names) {
+            functions.putIfAbsent(name, BUILT_INS.getOrDefault(name, NativeFunction.undefined(name)));
+        }
+        return new FunctionRegistry(new ArrayList<>(functions.values()));
+    }
+
+    /**
+     * A registry with the function added, it replaces a function of the same name.
+     */
+    public FunctionRegistry with(NativeFunction function) {
+        var functions = new ArrayList<NativeFunction>(this.functions.size() + 1);
+        for (var existing : this.functions) {
+            if (!existing.name().equals(function.name())) {
+                functions.add(existing);
+            }
+        }
+        functions.add(function);
+        return new FunctionRegistry(functions);
+    }
+
+    /**
+     * @return the function, or null when there is none of the name
+     */
+    public NativeFunction find(String name) {
+        int index = index(name.hashCode());
+        for (var function = table[index]; function != null; function = table[index]) {
+            if (function.name().equals(name)) {
+                return function;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the name made of {@code length} characters from {@code start}, hashed the same way as a string.
+     */
+    public NativeFunction find(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int index = index(hash);
+        for (var function = table[index]; function != null; function = table[index]) {
+            if (matches(function.name(), chars, start, length)) {
+                return function;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        return null;
+    }
+
+    public NativeFunction function(String name) {
+        var function = find(name);
+        if (function == null) {
+            throw new IllegalStateException("Unknown function '%s'".formatted(name));
+        }
+        return function;
+    }
+
+    public List<String> names() {
+        return functions.stream().map(NativeFunction::name).toList();
+    }
+
+    private int index(int hash) {
+        return (hash ^ (hash >>> 16)) & (table.length - 1);
+    }
+
+    private static boolean matches(String name, char[] chars, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, NativeFunction> builtInFunctions() {
+        var functions = new LinkedHashMap<String, NativeFunction>();
+        for (var function : List.of(
+              new NativeFunction("sin", 1, true, new NativeFunction.Unary(Math::sin), Intrinsic.SIN),
+              new NativeFunction("cos", 1, true, new NativeFunction.Unary(Math::cos), Intrinsic.COS),
+              new NativeFunction("tan", 1, true, new NativeFunction.Unary(Math::tan), Intrinsic.TAN),
+              new NativeFunction("sqrt", 1, true, new NativeFunction.Unary(Math::sqrt), Intrinsic.SQRT),
+              new NativeFunction("exp", 1, true, new NativeFunction.Unary(Math::exp), Intrinsic.EXP),
+              new NativeFunction("log", 1, true, new NativeFunction.Unary(Math::log), Intrinsic.LOG),
+              new NativeFunction("abs", 1, true, new NativeFunction.Unary(Math::abs), Intrinsic.ABS),
+              new NativeFunction("pow", 2, true, new NativeFunction.Binary(Math::pow), Intrinsic.POW),
+              new NativeFunction("min", NativeFunction.VARIADIC, true, new NativeFunction.Nary(FunctionRegistry::min), Intrinsic.MIN),
+              new NativeFunction("max", NativeFunction.VARIADIC, true, new NativeFunction.Nary(FunctionRegistry::max), Intrinsic.MAX))) {
+            functions.put(function.name(), function);
+        }
+        return Collections.unmodifiableMap(functions);
+    }
+
+    /**
+     * The minimum of no arguments is positive infinity, that does not change the minimum of others.
+     */
+    private static double min(double[] arguments, int offset, int count) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = offset; i < offset + count; i++) {
+            min = Math.min(min, arguments[i]);
+        }
+        return min;
+    }
+
+    private static double max(double[] arguments, int offset, int count) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = offset; i < offset + count; i++) {
+            max = Math.max(max, arguments[i]);
+        }
+        return max;
+    }
+}
@@ -2,136 +2,209 @@ package maksym.perevalov.tree;
 
 import static maksym.perevalov.parser.SyntaxParser.*;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import maksym.perevalov.parser.SyntaxParser.SyntaxToken;
+import maksym.perevalov.parser.TokenBuffer;
 
 public class InfixToPostfixTransformer {
-    private static final Map<String, Integer> PRECEDENCE = Map.of(
-          "-", 1,
-          "+", 1,
-          "/", 2,
-          "*", 2,
-          "^", 4,
-          "(", 0,
-          ")", 0
-    );
-
-    private final List<MathElement> postfix = new ArrayList<>();
-    private final Deque<Operator> operations = new ArrayDeque<>();
-    private int bonus = 0;
+    private static final SyntaxTokenType[] SYNTAX_TOKEN_TYPES = SyntaxTokenType.values();
 
     public List<MathElement> transform(List<SyntaxToken> tokens) {
-        for (var token : tokens) {
-            if (token.is(SyntaxTokenType.Number) || token.is(SyntaxTokenType.Variable)) {
-                addToPostfixExpression(token);
-                continue;
-            }
-
-            if (token.is(SyntaxTokenType.OpenFunctionBracket)) {
-                bonus += 10;
-            }
-
-            if (token.is(SyntaxTokenType.ClosedFunctionBracket)) {
-                bonus -= 10;
-            }
+        return compile(tokens).toElements();
+    }
 
-            if (token.is(SyntaxTokenType.Comma) && !operations.peek().isBracket()) {
-                addToPostfixExpression(takeSavedLatestOperator());
-            }
+    public PostfixProgram compile(List<SyntaxToken> tokens) {
+        return compile(TokenBuffer.ofSyntaxTokens(tokens));
+    }
 
-            if (token.is(SyntaxTokenType.Operator) || token.is(SyntaxTokenType.Function)) {
-                while (latestSavedOperatorHasHigherPrecedence(token)) {
-                    addToPostfixExpression(takeSavedLatestOperator());
+    /**
+     * Shunting-yard over syntax tokens. Operators are kept on the stack as indexes of their tokens,
+     * and every open function bracket counts the arguments of its call, that is emitted as soon as the bracket closes.
+     */
+    public PostfixProgram compile(TokenBuffer tokens) {
+        var program = new PostfixProgram.Builder();
+        var operations = new OperatorStack();
+        var calls = new CallStack();
+        for (int token = 0; token < tokens.size(); token++) {
+            switch (SYNTAX_TOKEN_TYPES[tokens.type(token)]) {
+                case Number -> program.constant(tokens.value(token));
+                case Variable -> program.variable(tokens.value(token));
+                case Function -> {
+                    if (!tokens.is(token + 1, SyntaxTokenType.OpenFunctionBracket)) {
+                        program.call(tokens.value(token), 0);
+                    }
                 }
-                saveOperator(new Operator(token.value(), getPrecedence(token)));
-                continue;
-            }
-
-            if (isOpenBracket(token)) {
-                saveOperator(new Operator(token.value(), 0));
-                continue;
-            }
-
-            if (isClosedBracket(token)) {
-                while (latestSavedOperatorIsNotOpenBracket()) {
-                    addToPostfixExpression(takeSavedLatestOperator());
+                case Operator -> {
+                    int precedence = precedence(tokens, token);
+                    // a power on the stack is not popped by another one, which makes it right associative
+                    int popped = isPower(tokens, token) ? precedence + 1 : precedence;
+                    while (!operations.isEmpty() && operations.peekPrecedence() >= popped) {
+                        addToProgram(program, tokens, operations.pop());
+                    }
+                    operations.push(token, precedence);
+                }
+                case OpenFunctionBracket -> {
+                    operations.push(token, 0);
+                    calls.push(token);
+                }
+                case OpenPrecedenceBracket -> operations.push(token, 0);
+                case ClosedPrecedenceBracket -> {
+                    popToOpenBracket(program, tokens, operations);
+                    addToProgram(program, tokens, operations.pop());
+                }
+                case ClosedFunctionBracket -> {
+                    var function = tokens.value(calls.peek() - 1);
+                    if (tokens.is(token - 1, SyntaxTokenType.OpenFunctionBracket)) {
+                        operations.pop();
+                        program.call(function, 0);
+                    } else {
+                        popToOpenBracket(program, tokens, operations);
+                        int arguments = calls.addArgument();
+                        // the last argument is bracketed
+                        addToProgram(program, tokens, operations.pop());
+                        program.call(function, Math.min(arguments, 2));
+                    }
+                    calls.pop();
+                }
+                case Comma -> {
+                    popToOpenBracket(program, tokens, operations);
+                    // the first two arguments make a call, that is the left argument of the next one
+                    if (calls.addArgument() > 1) {
+                        program.call(tokens.value(calls.peek() - 1), 2);
+                    }
+                }
+                case Start, End -> {
                 }
-               addToPostfixExpression(takeSavedLatestOperator());
             }
-
         }
 
         while (!operations.isEmpty()) {
-            addToPostfixExpression(takeSavedLatestOperator());
+            addToProgram(program, tokens, operations.pop());
         }
 
-        return postfix;
+        return program.build();
     }
 
-    private int getPrecedence(SyntaxToken token) {
-        if (token.is(SyntaxTokenType.Function)) return 3 + bonus;
-        return PRECEDENCE.get(token.value()) + bonus;
+    private static void popToOpenBracket(PostfixProgram.Builder program, TokenBuffer tokens, OperatorStack operations) {
+        while (!operations.isEmpty() && !isOpenBracket(tokens, operations.peek())) {
+            addToProgram(program, tokens, operations.pop());
+        }
     }
 
-    private boolean isClosedBracket(SyntaxToken token) {
-        return token.value().equals(")");
+    private static int precedence(TokenBuffer tokens, int token) {
+        return switch (tokens.firstChar(token)) {
+            case '+', '-' -> 1;
+            case '*', '/' -> 2;
+            case '^' -> 4;
+            default -> throw new RuntimeException("Unexpected token - " + tokens.syntaxToken(token));
+        };
     }
 
-    private boolean isOpenBracket(SyntaxToken token) {
-        return token.value().equals("(");
+    private static boolean isPower(TokenBuffer tokens, int token) {
+        return tokens.is(token, SyntaxTokenType.Operator) && tokens.firstChar(token) == '^';
     }
 
-    private boolean isOpenBracket(Operator token) {
-        return token.value().equals("(");
+    private static boolean isOpenBracket(TokenBuffer tokens, int token) {
+        return tokens.is(token, SyntaxTokenType.OpenPrecedenceBracket) || tokens.is(token, SyntaxTokenType.OpenFunctionBracket);
     }
 
-    private Operator takeSavedLatestOperator() {
-        return operations.pop();
+    private static void addToProgram(PostfixProgram.Builder program, TokenBuffer tokens, int token) {
+        if (isOpenBracket(tokens, token)) {
+            program.add(PostfixProgram.BRACKETS);
+        } else {
+            switch (tokens.firstChar(token)) {
+                case '+' -> program.add(PostfixProgram.ADD);
+                case '-' -> program.add(PostfixProgram.SUBTRACT);
+                case '*' -> program.add(PostfixProgram.MULTIPLY);
+                case '/' -> program.add(PostfixProgram.DIVIDE);
+                case '^' -> program.add(PostfixProgram.POWER);
+                default -> throw new RuntimeException("Unexpected token - " + tokens.syntaxToken(token));
+            }
+        }
     }
 
-    private boolean latestSavedOperatorIsNotOpenBracket() {
-        return !operations.isEmpty() && !isOpenBracket(operations.peek());
-    }
+    /**
+     * Stack of operator token indexes with their precedences.
+     */
+    private static final class OperatorStack {
+        private int[] tokens = new int[16];
+        private int[] precedences = new int[16];
+        private int size;
 
-    private void saveOperator(Operator token) {
-        operations.push(token);
-    }
+        boolean isEmpty() {
+            return size == 0;
+        }
 
-    private boolean latestSavedOperatorHasHigherPrecedence(SyntaxToken token) {
-        return !operations.isEmpty() && operations.peek().precedence() >= getPrecedence(token);
-    }
+        void push(int token, int precedence) {
+            if (size == tokens.length) {
+                tokens = Arrays.copyOf(tokens, size * 2);
+                precedences = Arrays.copyOf(precedences, size * 2);
+            }
+            tokens[size] = token;
+            precedences[size] = precedence;
+            size++;
+        }
 
-    private void addToPostfixExpression(SyntaxToken token) {
-        if (token.is(SyntaxTokenType.Function)) {
-            postfix.add(new MathElement.Function(token.value()));
-        } else if (token.is(SyntaxTokenType.Number)) {
-            postfix.add(new MathElement.MNumber(token.value()));
-        } else if (token.is(SyntaxTokenType.Variable)) {
-            postfix.add(new MathElement.Varaible(token.value()));
-        } else {
-            throw new RuntimeException("Unexpected token - " + token);
+        int peek() {
+            checkNotEmpty();
+            return tokens[size - 1];
         }
-    }
 
-    private void addToPostfixExpression(Operator operator) {
-        var element = switch (operator.value()) {
-            case "+" -> new MathElement.Plus();
-            case "-" -> new MathElement.Minus();
-            case "/" -> new MathElement.Divide();
-            case "*" -> new MathElement.Multiply();
-            default -> new MathElement.Function(operator.value());
-        };
-        postfix.add(element);
+        int peekPrecedence() {
+            return precedences[size - 1];
+        }
+
+        int pop() {
+            checkNotEmpty();
+            return tokens[--size];
+        }
+
+        private void checkNotEmpty() {
+            if (size == 0) {
+                throw new RuntimeException("Unexpected token - no operator to take");
+            }
+        }
     }
 
-    record Operator(String value, int precedence) {
-        public boolean isBracket() {
-            return value.equals("(") || value.equals(")");
+    /**
+     * Stack of open function bracket token indexes with the number of arguments closed in them so far.
+     */
+    private static final class CallStack {
+        private int[] opens = new int[16];
+        private int[] arguments = new int[16];
+        private int size;
+
+        void push(int open) {
+            if (size == opens.length) {
+                opens = Arrays.copyOf(opens, size * 2);
+                arguments = Arrays.copyOf(arguments, size * 2);
+            }
+            opens[size] = open;
+            arguments[size] = 0;
+            size++;
+        }
+
+        int peek() {
+            checkNotEmpty();
+            return opens[size - 1];
+        }
+
+        int addArgument() {
+            checkNotEmpty();
+            return ++arguments[size - 1];
+        }
+
+        void pop() {
+            checkNotEmpty();
+            size--;
+        }
+
+        private void checkNotEmpty() {
+            if (size == 0) {
+                throw new RuntimeException("Unexpected token - no function bracket to close");
+            }
         }
     }
 }
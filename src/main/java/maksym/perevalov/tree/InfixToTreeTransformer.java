@@ -0,0 +1,190 @@
+package maksym.perevalov.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import maksym.perevalov.parser.SyntaxParser.SyntaxToken;
+import maksym.perevalov.parser.SyntaxParser.SyntaxTokenType;
+import maksym.perevalov.parser.TokenBuffer;
+
+/**
+ * Builds {@link TreeNode} straight from validated syntax tokens by operator precedence, without the postfix list.
+ * Operands and pending operators are kept on explicit stacks, so nesting of brackets and calls is not limited by the thread stack.
+ * The tree is the same as {@link TreeBuilder} makes from {@link InfixToPostfixTransformer} output, function calls included:
+ * operators are left associative except the right associative power,
+ * and a bracketed expression, as well as the last argument of a function call, is marked as brackets.
+ * A call with one argument keeps it on the left, and a call with more than two arguments is folded from the left,
+ * because a node has only two children.
+ */
+public class InfixToTreeTransformer {
+    private static final SyntaxTokenType[] SYNTAX_TOKEN_TYPES = SyntaxTokenType.values();
+
+    public TreeNode transform(List<SyntaxToken> tokens) {
+        return transform(TokenBuffer.ofSyntaxTokens(tokens));
+    }
+
+    public TreeNode transform(TokenBuffer tokens) {
+        return new Parser(tokens).parse();
+    }
+
+    /**
+     * A pending operator, an open bracket or a call, that collects its arguments in {@code call}.
+     */
+    private static final class Pending {
+        final MathElement element;
+        final int precedence;
+        TreeNode call;
+
+        Pending(MathElement element, int precedence) {
+            this.element = element;
+            this.precedence = precedence;
+        }
+
+        boolean isOperator() {
+            return precedence > 0;
+        }
+
+        boolean isCall() {
+            return element instanceof MathElement.Function && precedence == 0;
+        }
+    }
+
+    private static final class Parser {
+        private static final int BRACKET = 0;
+
+        private final TokenBuffer tokens;
+        private final ArrayList<TreeNode> operands = new ArrayList<>();
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private int index;
+
+        Parser(TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        TreeNode parse() {
+            expect(SyntaxTokenType.Start);
+            while (index < tokens.size() && !tokens.is(index, SyntaxTokenType.End)) {
+                int current = index++;
+                switch (SYNTAX_TOKEN_TYPES[tokens.type(current)]) {
+                    case Number -> operands.add(new TreeNode(new MathElement.MNumber(tokens.value(current))));
+                    case Variable -> operands.add(new TreeNode(new MathElement.Varaible(tokens.value(current))));
+                    case Function -> call(new MathElement.Function(tokens.value(current)));
+                    case Operator -> {
+                        int precedence = precedence(current);
+                        // a power on the stack is not reduced by another one, which makes it right associative
+                        int reduced = tokens.firstChar(current) == '^' ? precedence + 1 : precedence;
+                        while (!pending.isEmpty() && pending.peek().isOperator() && pending.peek().precedence >= reduced) {
+                            reduce(current);
+                        }
+                        pending.push(new Pending(operator(current), precedence));
+                    }
+                    case OpenPrecedenceBracket -> pending.push(new Pending(null, BRACKET));
+                    case ClosedPrecedenceBracket -> {
+                        reduceOperators(current);
+                        if (pending.isEmpty() || pending.pop().element != null) {
+                            throw unexpected(current);
+                        }
+                        operands.add(popOperand(current).withBrackets(true));
+                    }
+                    case Comma -> addArgument(current);
+                    case ClosedFunctionBracket -> {
+                        var call = addArgument(current);
+                        pending.pop();
+                        operands.add(call.hasRight()
+                              ? call.withRight(call.right().withBrackets(true))
+                              : call.withLeft(call.left().withBrackets(true)));
+                    }
+                    default -> throw unexpected(current);
+                }
+            }
+            expect(SyntaxTokenType.End);
+            reduceOperators(index - 1);
+            if (!pending.isEmpty() || operands.size() != 1) {
+                throw unexpected(index - 1);
+            }
+            return operands.getFirst();
+        }
+
+        private void call(MathElement.Function function) {
+            if (!tokens.is(index, SyntaxTokenType.OpenFunctionBracket)) {
+                operands.add(new TreeNode(function));
+                return;
+            }
+            index++;
+            if (tokens.is(index, SyntaxTokenType.ClosedFunctionBracket)) {
+                index++;
+                operands.add(new TreeNode(function));
+                return;
+            }
+            pending.push(new Pending(function, BRACKET));
+        }
+
+        private TreeNode addArgument(int token) {
+            reduceOperators(token);
+            if (pending.isEmpty() || !pending.peek().isCall()) {
+                throw unexpected(token);
+            }
+            var call = pending.peek();
+            var function = call.element;
+            var argument = popOperand(token);
+            if (call.call == null) {
+                call.call = new TreeNode(function, argument, null);
+            } else {
+                call.call = call.call.hasRight() ? new TreeNode(function, call.call, argument) : call.call.withRight(argument);
+            }
+            return call.call;
+        }
+
+        private void reduceOperators(int token) {
+            while (!pending.isEmpty() && pending.peek().isOperator()) {
+                reduce(token);
+            }
+        }
+
+        private void reduce(int token) {
+            var operator = pending.pop();
+            var right = popOperand(token);
+            var left = popOperand(token);
+            operands.add(new TreeNode(operator.element, left, right));
+        }
+
+        private TreeNode popOperand(int token) {
+            if (operands.isEmpty()) {
+                throw unexpected(token);
+            }
+            return operands.removeLast();
+        }
+
+        void expect(SyntaxTokenType type) {
+            if (!tokens.is(index, type)) {
+                throw unexpected(index);
+            }
+            index++;
+        }
+
+        private int precedence(int token) {
+            return switch (tokens.firstChar(token)) {
+                case '+', '-' -> 1;
+                case '*', '/' -> 2;
+                case '^' -> 4;
+                default -> throw unexpected(token);
+            };
+        }
+
+        private MathElement operator(int token) {
+            return switch (tokens.firstChar(token)) {
+                case '+' -> new MathElement.Plus();
+                case '-' -> new MathElement.Minus();
+                case '*' -> new MathElement.Multiply();
+                case '/' -> new MathElement.Divide();
+                case '^' -> new MathElement.Power();
+                default -> throw unexpected(token);
+            };
+        }
+
+        private RuntimeException unexpected(int token) {
+            return new RuntimeException("Unexpected token - " + (token < tokens.size() ? tokens.syntaxToken(token) : "none"));
+        }
+    }
+}
@@ -3,29 +3,60 @@ package maksym.perevalov.tree;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class MathContext {
-    private final List<String> functions;
+    private final FunctionRegistry functions;
     private final Map<String, Double> variables;
+    private final String functionsFingerprint;
 
+    /**
+     * Names of built-in functions are bound to their implementations, other names are only known to the parser.
+     */
     public MathContext(List<String> functions, Map<String, Double> variables) {
-        this.functions = functions;
-        this.variables = variables;
+        this(FunctionRegistry.of(functions), variables);
     }
 
     public MathContext(List<String> functions) {
+        this(functions, Collections.emptyMap());
+    }
+
+    public MathContext(FunctionRegistry functions, Map<String, Double> variables) {
         this.functions = functions;
-        this.variables = Collections.emptyMap();
+        this.variables = variables;
+        this.functionsFingerprint = functions.names().stream()
+              .sorted()
+              .collect(Collectors.joining(","));
+    }
+
+    /**
+     * The same for contexts with the same function names, which are the only part of a context that changes how a formula is compiled.
+     * A comma is never a part of an identifier, so it separates the names unambiguously.
+     */
+    public String functionsFingerprint() {
+        return functionsFingerprint;
+    }
+
+    public FunctionRegistry functions() {
+        return functions;
+    }
+
+    public NativeFunction function(String name) {
+        return functions.function(name);
     }
 
     public boolean isFunction(String name) {
-        return functions.contains(name);
+        return functions.find(name) != null;
     }
 
+    public boolean isFunction(char[] chars, int start, int length) {
+        return functions.find(chars, start, length) != null;
+    }
+
+    /**
+     * Looks the name up on every read, a compiled {@link maksym.perevalov.eval.StackProgram} resolves it to a slot once instead.
+     */
     public Double readVariable(String variable) {
-        if (variables.containsKey(variable) && variables.containsKey(variable.substring(1))) {
-            System.out.println(variable + " - var not found");
-        }
         if (variable.charAt(0) == '-') {
             var value = variable.substring(1);
             return -1 * variables.getOrDefault(value, 0.0);
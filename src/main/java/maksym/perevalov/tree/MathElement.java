@@ -99,6 +99,46 @@ public sealed interface MathElement {
         }
     }
 
+    /**
+     * Right associative, {@code a^b^c} is {@code a^(b^c)}.
+     */
+    record Power() implements Operator {
+        @Override
+        public String value() {
+            return "^";
+        }
+
+        @Override
+        public String toString() {
+            return value();
+        }
+
+        @Override
+        public boolean isCommutative() {
+            return false;
+        }
+
+        /**
+         * An integer exponent is computed by squaring, without a call of {@link Math#pow}, that any other exponent is left to.
+         * Every evaluation backend computes a power by this method, so they agree on the result.
+         */
+        public static double apply(double base, double exponent) {
+            int n = (int) exponent;
+            if (n != exponent) {
+                return Math.pow(base, exponent);
+            }
+            double result = 1;
+            double square = base;
+            for (long m = Math.abs((long) n); m > 0; m >>= 1) {
+                if ((m & 1) != 0) {
+                    result *= square;
+                }
+                square *= square;
+            }
+            return n < 0 ? 1 / result : result;
+        }
+    }
+
     record Function(String value) implements Operator {
         @Override
         public String toString() {
@@ -0,0 +1,104 @@
+package maksym.perevalov.tree;
+
+import java.util.Locale;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Implementation of a function that formulas call by name, registered in a {@link FunctionRegistry}.
+ * A pure function gives the same result for the same arguments, so a call with constant arguments may be computed once on compilation.
+ * A built-in function has its {@link Intrinsic}, evaluation backends call the JDK method of an intrinsic directly
+ * instead of the kernel, a function registered by a user under the same name has none.
+ *
+ * @param arity the number of arguments, or {@link #VARIADIC}
+ */
+public record NativeFunction(String name, int arity, boolean pure, Kernel kernel, Intrinsic intrinsic) {
+    public static final int VARIADIC = -1;
+
+    public static NativeFunction unary(String name, DoubleUnaryOperator operator) {
+        return new NativeFunction(name, 1, true, new Unary(operator), null);
+    }
+
+    public static NativeFunction binary(String name, DoubleBinaryOperator operator) {
+        return new NativeFunction(name, 2, true, new Binary(operator), null);
+    }
+
+    public static NativeFunction nary(String name, int arity, NaryOperator operator) {
+        return new NativeFunction(name, arity, true, new Nary(operator), null);
+    }
+
+    /**
+     * A name that is known to the parser, but can not be evaluated.
+     */
+    public static NativeFunction undefined(String name) {
+        return new NativeFunction(name, VARIADIC, false, new Nary((_, _, _) -> {
+            throw new IllegalStateException("Function '%s' has no implementation".formatted(name));
+        }), null);
+    }
+
+    public NativeFunction impure() {
+        return new NativeFunction(name, arity, false, kernel, intrinsic);
+    }
+
+    public void checkArity(int arguments) {
+        if (arity != VARIADIC && arity != arguments) {
+            throw new IllegalArgumentException("Function '%s' takes %s arguments, but got %s".formatted(name, arity, arguments));
+        }
+    }
+
+    /**
+     * Applies the function to at most two arguments, as a call node of a tree has, the missing ones are ignored.
+     */
+    public double apply(int arguments, double first, double second) {
+        checkArity(arguments);
+        return switch (kernel) {
+            case Unary unary -> unary.operator().applyAsDouble(first);
+            case Binary binary -> binary.operator().applyAsDouble(first, second);
+            case Nary nary -> switch (arguments) {
+                case 0 -> nary.operator().apply(new double[0], 0, 0);
+                case 1 -> nary.operator().apply(new double[]{first}, 0, 1);
+                default -> nary.operator().apply(new double[]{first, second}, 0, 2);
+            };
+        };
+    }
+
+    /**
+     * Applies the function to {@code count} arguments, that start at {@code offset}.
+     */
+    public double apply(double[] arguments, int offset, int count) {
+        checkArity(count);
+        return switch (kernel) {
+            case Unary unary -> unary.operator().applyAsDouble(arguments[offset]);
+            case Binary binary -> binary.operator().applyAsDouble(arguments[offset], arguments[offset + 1]);
+            case Nary nary -> nary.operator().apply(arguments, offset, count);
+        };
+    }
+
+    public sealed interface Kernel {
+    }
+
+    public record Unary(DoubleUnaryOperator operator) implements Kernel {
+    }
+
+    public record Binary(DoubleBinaryOperator operator) implements Kernel {
+    }
+
+    public record Nary(NaryOperator operator) implements Kernel {
+    }
+
+    @FunctionalInterface
+    public interface NaryOperator {
+        double apply(double[] arguments, int offset, int count);
+    }
+
+    /**
+     * Built-in functions, each is the {@link Math} method of the same name.
+     */
+    public enum Intrinsic {
+        SIN, COS, TAN, SQRT, EXP, LOG, ABS, POW, MIN, MAX;
+
+        public String methodName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
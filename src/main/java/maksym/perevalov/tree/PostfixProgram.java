@@ -0,0 +1,165 @@
+package maksym.perevalov.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Postfix form of an expression as one int per element: an opcode in the low bits, the number of arguments of a call next to it
+ * and, for constants, variables and calls, an index into the constant pool or the symbol table in the rest of the bits.
+ * A call takes at most two arguments, longer calls are folded from the left like {@link InfixToTreeTransformer} does.
+ * Constants are parsed once, their source text is kept as well to build the same {@link MathElement.MNumber} as the list form.
+ * {@link #BRACKETS} marks the element on top of the stack as bracketed, the same as "(" does in the list form.
+ * In the list form a call with two arguments goes after a "," and a call without arguments after a "()".
+ */
+public final class PostfixProgram {
+    public static final int CONSTANT = 0;
+    public static final int VARIABLE = 1;
+    public static final int ADD = 2;
+    public static final int SUBTRACT = 3;
+    public static final int MULTIPLY = 4;
+    public static final int DIVIDE = 5;
+    public static final int CALL = 6;
+    public static final int BRACKETS = 7;
+    public static final int POWER = 8;
+
+    private static final int OPCODE_BITS = 4;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+    private static final int ARITY_BITS = 2;
+    private static final int ARITY_MASK = (1 << ARITY_BITS) - 1;
+    private static final int OPERAND_SHIFT = OPCODE_BITS + ARITY_BITS;
+
+    private final int[] code;
+    private final double[] constants;
+    private final String[] literals;
+    private final String[] symbols;
+
+    private PostfixProgram(int[] code, double[] constants, String[] literals, String[] symbols) {
+        this.code = code;
+        this.constants = constants;
+        this.literals = literals;
+        this.symbols = symbols;
+    }
+
+    public int size() {
+        return code.length;
+    }
+
+    public int opcode(int index) {
+        return code[index] & OPCODE_MASK;
+    }
+
+    public int operand(int index) {
+        return code[index] >>> OPERAND_SHIFT;
+    }
+
+    public int arity(int index) {
+        return code[index] >>> OPCODE_BITS & ARITY_MASK;
+    }
+
+    public int constantCount() {
+        return constants.length;
+    }
+
+    public double constant(int index) {
+        return constants[index];
+    }
+
+    public String literal(int index) {
+        return literals[index];
+    }
+
+    public int symbolCount() {
+        return symbols.length;
+    }
+
+    public String symbol(int index) {
+        return symbols[index];
+    }
+
+    /**
+     * The list form {@link TreeBuilder#buildTree(List)} takes.
+     */
+    public List<MathElement> toElements() {
+        var elements = new ArrayList<MathElement>(code.length);
+        for (int i = 0; i < code.length; i++) {
+            if (opcode(i) == CALL && arity(i) != 1) {
+                elements.add(new MathElement.Function(arity(i) == 0 ? "()" : ","));
+            }
+            elements.add(switch (opcode(i)) {
+                case CONSTANT -> new MathElement.MNumber(literals[operand(i)]);
+                case VARIABLE -> new MathElement.Varaible(symbols[operand(i)]);
+                case ADD -> new MathElement.Plus();
+                case SUBTRACT -> new MathElement.Minus();
+                case MULTIPLY -> new MathElement.Multiply();
+                case DIVIDE -> new MathElement.Divide();
+                case POWER -> new MathElement.Power();
+                case CALL -> new MathElement.Function(symbols[operand(i)]);
+                case BRACKETS -> new MathElement.Function("(");
+                default -> throw new IllegalStateException("Unknown opcode " + opcode(i));
+            });
+        }
+        return elements;
+    }
+
+    static final class Builder {
+        private int[] code = new int[16];
+        private int size;
+        private double[] constants = new double[8];
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> symbols = new ArrayList<>();
+        private final Map<String, Integer> symbolIndexes = new HashMap<>();
+
+        void constant(String literal) {
+            if (literals.size() == constants.length) {
+                constants = Arrays.copyOf(constants, constants.length * 2);
+            }
+            constants[literals.size()] = Double.parseDouble(literal);
+            add(CONSTANT, literals.size());
+            literals.add(literal);
+        }
+
+        void variable(String name) {
+            add(VARIABLE, symbol(name));
+        }
+
+        void call(String name, int arity) {
+            add(CALL, arity, symbol(name));
+        }
+
+        void add(int opcode) {
+            add(opcode, 0);
+        }
+
+        private int symbol(String name) {
+            var index = symbolIndexes.putIfAbsent(name, symbols.size());
+            if (index != null) {
+                return index;
+            }
+            symbols.add(name);
+            return symbols.size() - 1;
+        }
+
+        private void add(int opcode, int operand) {
+            add(opcode, 0, operand);
+        }
+
+        private void add(int opcode, int arity, int operand) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = opcode | arity << OPCODE_BITS | operand << OPERAND_SHIFT;
+        }
+
+        PostfixProgram build() {
+            return new PostfixProgram(
+                  Arrays.copyOf(code, size),
+                  Arrays.copyOf(constants, literals.size()),
+                  literals.toArray(String[]::new),
+                  symbols.toArray(String[]::new)
+            );
+        }
+    }
+}
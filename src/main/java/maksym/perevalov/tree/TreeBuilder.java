@@ -3,18 +3,35 @@ package maksym.perevalov.tree;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public class TreeBuilder {
+    private static final MathElement PLUS = new MathElement.Plus();
+    private static final MathElement MINUS = new MathElement.Minus();
+    private static final MathElement MULTIPLY = new MathElement.Multiply();
+    private static final MathElement DIVIDE = new MathElement.Divide();
+    private static final MathElement POWER = new MathElement.Power();
 
     public TreeNode buildTree(List<MathElement> postfix) {
         Deque<TreeNode> stack = new ArrayDeque<>();
+        int arity = 1;
         for (MathElement element : postfix) {
             if (element.value().equals("(")) {
                 var node = stack.pop().withBrackets(true);
                 stack.addFirst(node);
                 continue;
             }
-            if (element instanceof MathElement.Operator) {
+            // the number of arguments of the next call, when it is not one
+            if (element.value().equals(",") || element.value().equals("()")) {
+                arity = element.value().equals(",") ? 2 : 0;
+                continue;
+            }
+            if (element instanceof MathElement.Function) {
+                var right = arity == 2 ? stack.pop() : null;
+                var left = arity > 0 ? stack.pop() : null;
+                stack.push(new TreeNode(element, left, right));
+                arity = 1;
+            } else if (element instanceof MathElement.Operator) {
                 var right = stack.pop();
                 var left = stack.pop();
                 stack.push(new TreeNode(element, left, right));
@@ -24,4 +41,74 @@ public class TreeBuilder {
         }
         return stack.pop();
     }
+
+    /**
+     * Builds the same tree as from {@link PostfixProgram#toElements()}, with one element per constant, symbol and operator shared by all nodes.
+     */
+    public TreeNode buildTree(PostfixProgram program) {
+        var constants = new MathElement[program.constantCount()];
+        var variables = new MathElement[program.symbolCount()];
+        var functions = new MathElement[program.symbolCount()];
+        var stack = new TreeNode[program.size()];
+        int size = 0;
+        for (int i = 0; i < program.size(); i++) {
+            int operand = program.operand(i);
+            switch (program.opcode(i)) {
+                case PostfixProgram.CONSTANT -> {
+                    if (constants[operand] == null) {
+                        constants[operand] = new MathElement.MNumber(program.literal(operand));
+                    }
+                    stack[size++] = new TreeNode(constants[operand]);
+                }
+                case PostfixProgram.VARIABLE -> {
+                    if (variables[operand] == null) {
+                        variables[operand] = new MathElement.Varaible(program.symbol(operand));
+                    }
+                    stack[size++] = new TreeNode(variables[operand]);
+                }
+                case PostfixProgram.BRACKETS -> {
+                    checkOperands(size, 1);
+                    stack[size - 1] = stack[size - 1].withBrackets(true);
+                }
+                case PostfixProgram.CALL -> {
+                    int arity = program.arity(i);
+                    checkOperands(size, arity);
+                    if (functions[operand] == null) {
+                        functions[operand] = new MathElement.Function(program.symbol(operand));
+                    }
+                    size -= arity;
+                    stack[size] = new TreeNode(functions[operand], arity > 0 ? stack[size] : null, arity > 1 ? stack[size + 1] : null);
+                    size++;
+                }
+                default -> {
+                    checkOperands(size, 2);
+                    var element = switch (program.opcode(i)) {
+                        case PostfixProgram.ADD -> PLUS;
+                        case PostfixProgram.SUBTRACT -> MINUS;
+                        case PostfixProgram.MULTIPLY -> MULTIPLY;
+                        case PostfixProgram.DIVIDE -> DIVIDE;
+                        case PostfixProgram.POWER -> POWER;
+                        default -> throw new IllegalStateException("Unknown opcode " + program.opcode(i));
+                    };
+                    size--;
+                    stack[size - 1] = new TreeNode(element, stack[size - 1], stack[size]);
+                }
+            }
+        }
+        checkOperands(size, 1);
+        return stack[size - 1];
+    }
+
+    /**
+     * The same tree as {@link #buildTree(PostfixProgram)} makes, kept in arrays.
+     */
+    public FlatTree buildFlatTree(PostfixProgram program) {
+        return FlatTree.of(program);
+    }
+
+    private static void checkOperands(int size, int count) {
+        if (size < count) {
+            throw new NoSuchElementException("Not enough operands in postfix program");
+        }
+    }
 }
@@ -1,12 +1,21 @@
 package maksym.perevalov.tree;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Objects;
 
 public class TreeNode {
     private final MathElement value;
     private final TreeNode left, right;
     private final boolean isBrackets;
+    private final int weight;
+    private final int height;
+    private final int freeSlots;
+    private final int hash;
+    private final TreeNodeFactory factory;
 
     public TreeNode(MathElement value) {
         this(value, null, null);
@@ -17,10 +26,24 @@ public class TreeNode {
     }
 
     public TreeNode(MathElement value, TreeNode left, TreeNode right, boolean isBrackets) {
+        this(value, left, right, isBrackets, null);
+    }
+
+    TreeNode(MathElement value, TreeNode left, TreeNode right, boolean isBrackets, TreeNodeFactory factory) {
         this.value = value;
         this.left = left;
         this.right = right;
         this.isBrackets = isBrackets;
+        this.weight = 1 + weight(left) + weight(right);
+        this.height = 1 + Math.max(height(left), height(right));
+        this.freeSlots = freeSlots(value, left, right);
+        this.hash = ((value.value().hashCode() * 31 + Objects.hashCode(left)) * 31 + Objects.hashCode(right)) * 31 + Boolean.hashCode(isBrackets);
+        this.factory = factory;
+    }
+
+    private static int freeSlots(MathElement value, TreeNode left, TreeNode right) {
+        if (value instanceof MathElement.Value || value instanceof MathElement.Function) return 0;
+        return (left == null ? 1 : left.freeSlots) + (right == null ? 1 : right.freeSlots);
     }
 
     public static TreeNode ofNumber(Double number) {
@@ -32,125 +55,181 @@ public class TreeNode {
     }
 
     public static boolean hasFree(TreeNode node) {
-        if (node == null) return false;
-        if (node.value() instanceof MathElement.Value) return false;
-        if (!node.hasLeft() || !node.hasRight()) return true;
-        return hasFree(node.left) || hasFree(node.right);
+        return node != null && node.freeSlots > 0;
     }
 
     public TreeNode insert(TreeNode node) {
-        return insert(this, node, this);
-    }
-
-    private static TreeNode insert(TreeNode current, TreeNode target, TreeNode root) {
-        if (!current.hasLeft()) {
-            if (!current.isCompleted()) {
-                root.setNotCompleted(current);
+        // the nodes on the way down and, for each of them, whether the way goes to the left
+        var path = new ArrayList<TreeNode>();
+        var toLeft = new BitSet();
+        var current = this;
+        TreeNode inserted;
+        while (true) {
+            if (!current.hasLeft()) {
+                if (!current.isCompleted()) {
+                    setNotCompleted(current);
+                }
+                inserted = current.withLeft(node);
+                break;
             }
-            return current.withLeft(target);
-        }
-        if (!current.hasRight()) {
-            if (!current.isCompleted()) {
-                root.setNotCompleted(current);
+            if (!current.hasRight()) {
+                if (!current.isCompleted()) {
+                    setNotCompleted(current);
+                }
+                inserted = current.withRight(node);
+                break;
             }
-            return current.withRight(target);
+            boolean left;
+            if (hasFree(current.left) && weight(current.left) <= weight(current.right)) {
+                left = true;
+            } else if (hasFree(current.right) && weight(current.right) < weight(current.left)) {
+                left = false;
+            } else if (hasFree(current.left)) {
+                left = true;
+            } else if (hasFree(current.right)) {
+                left = false;
+            } else {
+                throw new RuntimeException("Can't insert value = " + current);
+            }
+            toLeft.set(path.size(), left);
+            path.add(current);
+            current = left ? current.left : current.right;
         }
-        if (hasFree(current.left) && weight(current.left) <= weight(current.right)) {
-            return current.withLeft(insert(current.left, target, root));
-        } else if (hasFree(current.right) && weight(current.right) < weight(current.left)) {
-            return current.withRight(insert(current.right, target, root));
-        } else if (hasFree(current.left)) {
-            return current.withLeft(insert(current.left, target, root));
-        } else if (hasFree(current.right)) {
-            return current.withRight(insert(current.right, target, root));
-        } else {
-            throw new RuntimeException("Can't insert value = " + current);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            inserted = toLeft.get(i) ? path.get(i).withLeft(inserted) : path.get(i).withRight(inserted);
         }
+        return inserted;
     }
 
     public Result collectPluses() {
-        var leafs = new ArrayList<TreeNode>();
-        int total = collectPluses(leafs, this);
-        return new Result(leafs, total, this.isBrackets);
-    }
-
-    private int collectPluses(List<TreeNode> leafs, TreeNode node) {
-        if (node != null && node.value() instanceof MathElement.Plus) {
-            return 1 + collectPluses(leafs, node.right) + collectPluses(leafs, node.left);
-        } else {
-            leafs.add(node);
-            return 0;
-        }
+        return collect(MathElement.Plus.class);
     }
 
     public Result collectMultiplications() {
-        var leafs = new ArrayList<TreeNode>();
-        int total = collectMultiplications(leafs, this);
-        return new Result(leafs, total, this.isBrackets);
+        return collect(MathElement.Multiply.class);
     }
 
-    private static int collectMultiplications(List<TreeNode> leafs, TreeNode node) {
-        if (node != null && node.value() instanceof MathElement.Multiply) {
-            return 1 + collectMultiplications(leafs, node.right) + collectMultiplications(leafs, node.left);
-        } else {
-            leafs.add(node);
-            return 0;
+    // the right side of a node goes before the left one
+    private Result collect(Class<? extends MathElement> operator) {
+        var leafs = new ArrayList<TreeNode>();
+        int total = 0;
+        // a list, not a deque, because a child may be missing
+        var nodes = new ArrayList<TreeNode>();
+        nodes.add(this);
+        while (!nodes.isEmpty()) {
+            var node = nodes.removeLast();
+            if (node != null && operator.isInstance(node.value())) {
+                total++;
+                nodes.add(node.left);
+                nodes.add(node.right);
+            } else {
+                leafs.add(node);
+            }
         }
+        return new Result(leafs, total, this.isBrackets);
     }
 
     public int height() {
-        return height(this);
+        return height;
     }
 
     private static int height(TreeNode node) {
-        if (node == null) {
-            return 0;
-        } else {
-            int leftHeight = height(node.left);
-            int rightHeight = height(node.right);
-            return Math.max(leftHeight, rightHeight) + 1;
-        }
+        return node == null ? 0 : node.height;
     }
 
     public int weight() {
-        return weight(this);
+        return weight;
     }
 
     private static int weight(TreeNode node) {
-        if (node == null) {
-            return 0;
-        } else {
-            int left = weight(node.left);
-            int right = weight(node.right);
-            return 1 + left + right;
-        }
+        return node == null ? 0 : node.weight;
     }
 
+    // only operators and calls are kept on the stack, leafs are computed in place
     public double compute(MathContext context) {
-        return compute(this, context);
+        if (!isOperation(this)) return computeLeaf(this, context);
+        var operations = new TreeNode[16];
+        var computed = new byte[16];
+        var values = new double[16];
+        int depth = 0;
+        int count = 0;
+        operations[depth] = this;
+        computed[depth++] = 0;
+        while (depth > 0) {
+            var node = operations[depth - 1];
+            int operands = operandCount(node);
+            if (computed[depth - 1] < operands) {
+                var operand = operand(node, computed[depth - 1]++);
+                if (isOperation(operand)) {
+                    if (depth == operations.length) {
+                        operations = Arrays.copyOf(operations, depth * 2);
+                        computed = Arrays.copyOf(computed, depth * 2);
+                    }
+                    operations[depth] = operand;
+                    computed[depth++] = 0;
+                    continue;
+                }
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = computeLeaf(operand, context);
+                continue;
+            }
+            depth--;
+            if (node.value instanceof MathElement.Function function) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                count -= operands;
+                values[count] = context.function(function.value())
+                      .apply(operands, operands > 0 ? values[count] : 0, operands > 1 ? values[count + 1] : 0);
+                count++;
+                continue;
+            }
+            double right = values[--count];
+            double left = values[count - 1];
+            values[count - 1] = switch (node.value) {
+                case MathElement.Plus _ -> left + right;
+                case MathElement.Minus _ -> left - right;
+                case MathElement.Multiply _ -> left * right;
+                case MathElement.Power _ -> MathElement.Power.apply(left, right);
+                default -> left / right;
+            };
+        }
+        return values[0];
+    }
+
+    // a call has only the arguments it has, an operator both operands, even a missing one
+    private static int operandCount(TreeNode node) {
+        if (!(node.value instanceof MathElement.Function)) return 2;
+        return (node.left == null ? 0 : 1) + (node.right == null ? 0 : 1);
     }
 
-    private double compute(TreeNode node, MathContext context) {
-        if (node == null)
-            return 0;
+    private static TreeNode operand(TreeNode node, int index) {
+        return index == 0 && (node.left != null || !(node.value instanceof MathElement.Function)) ? node.left : node.right;
+    }
+
+    private static double computeLeaf(TreeNode node, MathContext context) {
+        if (node == null) return 0;
         return switch (node.value()) {
             case MathElement.MNumber v -> Double.parseDouble(v.value());
-            case MathElement.Plus _ -> compute(node.left(), context) + compute(node.right(), context);
-            case MathElement.Minus _ -> compute(node.left(), context) - compute(node.right(), context);
-            case MathElement.Multiply _ -> compute(node.left(), context) * compute(node.right(), context);
-            case MathElement.Divide _ -> compute(node.left(), context) / compute(node.right(), context);
-            case MathElement.Function function -> {
-                System.out.println("Compute (function)");
-                yield 0.0;
-            }
             case MathElement.Varaible v -> context.readVariable(v.value());
             case null -> {
                 System.out.println("Compute (null)");
                 yield 0.0;
             }
+            default -> throw new IllegalStateException("Not a leaf " + node.value());
         };
     }
 
+    private static boolean isOperation(TreeNode node) {
+        if (node == null) return false;
+        var value = node.value;
+        return value instanceof MathElement.Plus || value instanceof MathElement.Minus
+              || value instanceof MathElement.Multiply || value instanceof MathElement.Divide || value instanceof MathElement.Power
+              || value instanceof MathElement.Function;
+    }
+
     public boolean isValue() {
         return value instanceof MathElement.Value;
     }
@@ -175,20 +254,94 @@ public class TreeNode {
         return right;
     }
 
+    // null for a node of a plain tree
+    TreeNodeFactory factory() {
+        return factory;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TreeNode other) || !isSameNode(this, other)) return false;
+        // pairs of children to compare, a list because a child may be missing
+        var pairs = new ArrayList<TreeNode>();
+        addChildren(pairs, this, other);
+        while (!pairs.isEmpty()) {
+            var b = pairs.removeLast();
+            var a = pairs.removeLast();
+            if (a == b) continue;
+            // a factory never makes two equal nodes
+            if (a == null || b == null || a.factory != null && a.factory == b.factory || !isSameNode(a, b)) {
+                return false;
+            }
+            addChildren(pairs, a, b);
+        }
+        return true;
+    }
+
+    private static boolean isSameNode(TreeNode a, TreeNode b) {
+        return a.hash == b.hash && a.isBrackets == b.isBrackets && a.value.equals(b.value);
+    }
+
+    private static void addChildren(List<TreeNode> pairs, TreeNode a, TreeNode b) {
+        pairs.add(a.left);
+        pairs.add(b.left);
+        pairs.add(a.right);
+        pairs.add(b.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public String toString() {
         return value.value();
     }
 
     public String toExpressionString() {
-        var s = switch (value) {
-            case MathElement.Function operator ->
-                  "%s(%s, %s)".formatted(operator.value(), left().toExpressionString(), right().toExpressionString());
-            case MathElement.Operator operator ->
-                  "%s %s %s".formatted(left().toExpressionString(), operator.value(), right().toExpressionString());
-            case MathElement.Value v -> v.value();
-        };
-        return isBrackets ? "(" + s + ")" : s;
+        var expression = new StringBuilder();
+        // nodes still to print and text to append, the next one on top
+        var parts = new ArrayDeque<Object>();
+        parts.push(this);
+        while (!parts.isEmpty()) {
+            switch (parts.pop()) {
+                case String text -> expression.append(text);
+                case TreeNode node -> node.pushParts(parts);
+                default -> throw new IllegalStateException("Unexpected part");
+            }
+        }
+        return expression.toString();
+    }
+
+    private void pushParts(ArrayDeque<Object> parts) {
+        if (isBrackets) {
+            parts.push(")");
+        }
+        switch (value) {
+            case MathElement.Function operator -> {
+                parts.push(")");
+                if (right != null) parts.push(right);
+                if (right != null && left != null) parts.push(", ");
+                if (left != null) parts.push(left);
+                parts.push(operator.value() + "(");
+            }
+            case MathElement.Operator operator -> {
+                parts.push(right);
+                parts.push(" " + operator.value() + " ");
+                parts.push(left);
+            }
+            case MathElement.Value v -> parts.push(v.value());
+        }
+        if (isBrackets) {
+            parts.push("(");
+        }
+    }
+
+    public TreeNode withChildren(TreeNode newLeft, TreeNode newRight) {
+        if (newLeft == left && newRight == right) return this;
+        return new TreeNode(this.value, newLeft, newRight, this.isBrackets);
     }
 
     public TreeNode withLeft(TreeNode newLeft) {
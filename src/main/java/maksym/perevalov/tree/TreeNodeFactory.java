@@ -0,0 +1,52 @@
+package maksym.perevalov.tree;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash-consing of tree nodes: structurally equal subtrees made by one factory are the same instance,
+ * so repeated subexpressions are stored once and a tree becomes a DAG.
+ * {@link TreeRewriter} rewrites a shared node once, and {@link FlatTree#of(TreeNode)} keeps it once, so it is also computed once.
+ * A factory keeps every node it made, and is not thread safe.
+ */
+public final class TreeNodeFactory {
+    private final Map<TreeNode, TreeNode> nodes = new HashMap<>();
+
+    public TreeNode node(MathElement value) {
+        return node(value, null, null, false);
+    }
+
+    public TreeNode node(MathElement value, TreeNode left, TreeNode right) {
+        return node(value, left, right, false);
+    }
+
+    /**
+     * Children that are not made by this factory are interned first.
+     */
+    public TreeNode node(MathElement value, TreeNode left, TreeNode right, boolean isBrackets) {
+        var node = new TreeNode(value, intern(left), intern(right), isBrackets, this);
+        var shared = nodes.putIfAbsent(node, node);
+        return shared == null ? node : shared;
+    }
+
+    /**
+     * The shared node structurally equal to the given one, subtrees already made by this factory are not walked.
+     */
+    public TreeNode intern(TreeNode root) {
+        if (root == null || root.factory() == this) return root;
+        return TreeRewriter.rewrite(root, this::isForeignLeft, this::isForeignRight,
+              (node, left, right) -> node.factory() == this ? node : node(node.value(), left, right, node.isBrackets()));
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    private boolean isForeignLeft(TreeNode node) {
+        return node.factory() != this && node.left().factory() != this;
+    }
+
+    private boolean isForeignRight(TreeNode node) {
+        return node.factory() != this && node.right().factory() != this;
+    }
+}
@@ -7,44 +7,80 @@ import java.util.List;
 
 public class TreeOptimizer {
     private TreeNode root;
+    private final TreeNodeFactory factory;
 
     public TreeOptimizer(TreeNode root) {
-        this.root = root;
+        this(root, null);
+    }
+
+    // keeps the tree a DAG, the result of every pass is interned by the factory
+    public TreeOptimizer(TreeNode root, TreeNodeFactory factory) {
+        this.factory = factory;
+        this.root = share(root);
     }
 
     public TreeNode optimize() {
-        this.root = foldNumbers(this.root);
-        this.root = optimizeZeroExpressions(this.root);
-        this.root = optimizeOneExpressions(this.root);
-        this.root = transformSubtractionToAddition(root);
-        this.root = transformDivisionToMultiplication(this.root);
-        this.root = balanceAdditions(this.root);
-        this.root = optimizeWhenRightIsNegativeInAddition(this.root); // should be after balanceAdditions
-        this.root = balanceMultiplications(this.root);
-        this.root = optimizeWhenRightIsNegativeInAddition(this.root);
-        this.root = optimizeZeroExpressions(this.root);
-        this.root = optimizeOneExpressions(this.root);
-        this.root = foldNumbers(this.root);
+        this.root = share(foldNumbers(this.root));
+        this.root = share(reducePowers(this.root));
+        this.root = share(optimizeZeroExpressions(this.root));
+        this.root = share(optimizeOneExpressions(this.root));
+        this.root = share(transformSubtractionToAddition(root));
+        this.root = share(transformDivisionToMultiplication(this.root));
+        this.root = share(balanceAdditions(this.root));
+        this.root = share(optimizeWhenRightIsNegativeInAddition(this.root)); // should be after balanceAdditions
+        this.root = share(balanceMultiplications(this.root));
+        this.root = share(optimizeWhenRightIsNegativeInAddition(this.root));
+        this.root = share(optimizeZeroExpressions(this.root));
+        this.root = share(optimizeOneExpressions(this.root));
+        this.root = share(foldNumbers(this.root));
         return root;
     }
 
-    private TreeNode foldNumbers(TreeNode node) {
-        if (node == null) return null;
-        node = node
-              .withLeft(foldNumbers(node.left()))
-              .withRight(foldNumbers(node.right()));
-        if (isNumber(node.left()) && isNumber(node.right())) {
+    private TreeNode share(TreeNode node) {
+        return factory == null ? node : factory.intern(node);
+    }
+
+    private TreeNode foldNumbers(TreeNode root) {
+        return TreeRewriter.rewrite(root, (node, left, right) -> foldNumber(node.withChildren(left, right)));
+    }
+
+    // calls are not folded, the context they are evaluated in has the functions
+    private TreeNode foldNumber(TreeNode node) {
+        if (!(node.value() instanceof Function) && isNumber(node.left()) && isNumber(node.right())) {
             var compute = node.compute(new MathContext(List.of()));
             return new TreeNode(new MNumber(Double.toString(compute)), null, null);
         }
         return node;
     }
 
-    private TreeNode optimizeWhenRightIsNegativeInAddition(TreeNode node) {
-        if (node == null) return null;
-        node = node
-              .withLeft(optimizeWhenRightIsNegativeInAddition(node.left()))
-              .withRight(optimizeWhenRightIsNegativeInAddition(node.right()));
+    private TreeNode reducePowers(TreeNode root) {
+        return TreeRewriter.rewrite(root, (node, left, right) -> reducePower(node.withChildren(left, right)));
+    }
+
+    // x^0, x^1, x^-1 and x^2, the last one only for a leaf, a subtree would be computed twice
+    private TreeNode reducePower(TreeNode node) {
+        if (!(node.value() instanceof Power) || !isNumber(node.right())) return node;
+        double exponent = Double.parseDouble(node.right().value().value());
+        if (exponent == 0) {
+            return new TreeNode(MNumber.one());
+        }
+        if (exponent == 1) {
+            return node.left();
+        }
+        if (exponent == -1) {
+            return node.withValue(new Divide()).withChildren(new TreeNode(MNumber.one()), node.left());
+        }
+        if (exponent == 2 && node.left().isValue()) {
+            return node.withValue(new Multiply()).withRight(node.left());
+        }
+        return node;
+    }
+
+    private TreeNode optimizeWhenRightIsNegativeInAddition(TreeNode root) {
+        return TreeRewriter.rewrite(root, (node, left, right) -> optimizeWhenRightIsNegative(node.withChildren(left, right)));
+    }
+
+    private TreeNode optimizeWhenRightIsNegative(TreeNode node) {
         if (node.value() instanceof MathElement.Plus) {
             if (node.right().value() instanceof MathElement.MNumber n && n.isNegative()) {
                 return node
@@ -61,11 +97,11 @@ public class TreeOptimizer {
         return node;
     }
 
-    private TreeNode optimizeZeroExpressions(TreeNode node) {
-        if (node == null) return null;
-        node = node
-              .withLeft(optimizeZeroExpressions(node.left()))
-              .withRight(optimizeZeroExpressions(node.right()));
+    private TreeNode optimizeZeroExpressions(TreeNode root) {
+        return TreeRewriter.rewrite(root, (node, left, right) -> optimizeZeroExpression(node.withChildren(left, right)));
+    }
+
+    private TreeNode optimizeZeroExpression(TreeNode node) {
         switch (node.value()) {
             case Multiply _ -> {
                 if (isZero(node.left()) || isZero(node.right())) {
@@ -98,11 +134,11 @@ public class TreeOptimizer {
         return node.value() instanceof MNumber;
     }
 
-    private TreeNode optimizeOneExpressions(TreeNode node) {
-        if (node == null) return null;
-        node = node
-              .withLeft(optimizeOneExpressions(node.left()))
-              .withRight(optimizeOneExpressions(node.right()));
+    private TreeNode optimizeOneExpressions(TreeNode root) {
+        return TreeRewriter.rewrite(root, (node, left, right) -> optimizeOneExpression(node.withChildren(left, right)));
+    }
+
+    private TreeNode optimizeOneExpression(TreeNode node) {
         switch (node.value()) {
             case Multiply _ -> {
                 if (isPositiveOne(node.left())) return node.right();
@@ -148,84 +184,64 @@ public class TreeOptimizer {
         return strings.contains(node.value().value());
     }
 
-    private static TreeNode balanceAdditions(TreeNode node) {
-        if (node == null) return null;
-        if (!(node.value() instanceof Plus)) {
-            return node
-                  .withLeft(balanceAdditions(node.left()))
-                  .withRight(balanceAdditions(node.right()));
-        }
-        var result = node.collectPluses();
-        var root = new TreeNode(new Plus(), null, null, result.brackets());
-        for (int i = 1; i < result.total(); i++) {
-            root = root.insert(new TreeNode(new Plus(), null, null));
-        }
-        var balancedLeafs = result.leafs().stream()
-              .map(leaf -> leaf
-                    .withLeft(balanceAdditions(leaf.left()))
-                    .withRight(balanceAdditions(leaf.right()))
-              )
-              .sorted(Comparator.comparing(TreeNode::weight).reversed())
-              .toList();
-        for (TreeNode balancedLeaf : balancedLeafs) {
-            root = root.insert(balancedLeaf);
-        }
-        return root;
+    private static TreeNode balanceAdditions(TreeNode root) {
+        return balance(root, Plus.class, new Plus());
     }
 
-    private static TreeNode balanceMultiplications(TreeNode node) {
-        if (node == null) return null;
-        if (!(node.value() instanceof Multiply)) {
-            return node
-                  .withLeft(balanceMultiplications(node.left()))
-                  .withRight(balanceMultiplications(node.right()));
-        }
-        var result = node.collectMultiplications();
-        var root = new TreeNode(new Multiply(), null, null, result.brackets());
-        for (int i = 1; i < result.total(); i++) {
-            root = root.insert(new TreeNode(new Multiply(), null, null));
-        }
-        var balancedLeafs = result.leafs().stream()
-              .map(leaf -> leaf
-                    .withLeft(balanceMultiplications(leaf.left()))
-                    .withRight(balanceMultiplications(leaf.right()))
-              )
+    private static TreeNode balanceMultiplications(TreeNode root) {
+        return balance(root, Multiply.class, new Multiply());
+    }
+
+    // clusters are balanced bottom-up, so their leafs are balanced already
+    private static TreeNode balance(TreeNode root, Class<? extends MathElement> type, MathElement operator) {
+        var balanced = TreeRewriter.rewrite(root, (node, left, right) -> {
+            if (type.isInstance(node.value())) {
+                return node.withChildren(left, right);
+            }
+            return node.withChildren(balanceCluster(left, type, operator), balanceCluster(right, type, operator));
+        });
+        return balanceCluster(balanced, type, operator);
+    }
+
+    private static TreeNode balanceCluster(TreeNode node, Class<? extends MathElement> type, MathElement operator) {
+        if (node == null || !type.isInstance(node.value())) return node;
+        var result = node.value() instanceof Plus ? node.collectPluses() : node.collectMultiplications();
+        var sortedLeafs = result.leafs().stream()
               .sorted(Comparator.comparing(TreeNode::weight).reversed())
               .toList();
-        for (TreeNode balancedLeaf : balancedLeafs) {
-            root = root.insert(balancedLeaf);
-        }
-        return root;
+        return new BalancedTree(operator, result).build(sortedLeafs);
     }
 
-    private static TreeNode transformSubtractionToAddition(TreeNode node) {
-        if (node == null) return null;
-        node = node
-              .withLeft(transformSubtractionToAddition(node.left()))
-              .withRight(transformSubtractionToAddition(node.right()));
-        if (node.value() instanceof Minus && (isSubtractionOrAddition(node.left()) || isSubtractionOrAddition(node.right()))) {
-            node = node
-                  .withRight(negate(node.right()))
-                  .withValue(new Plus());
-        }
-        return node;
+    private static TreeNode transformSubtractionToAddition(TreeNode root) {
+        return TreeRewriter.rewrite(root, (node, left, right) -> {
+            node = node.withChildren(left, right);
+            if (node.value() instanceof Minus && (isSubtractionOrAddition(node.left()) || isSubtractionOrAddition(node.right()))) {
+                node = node
+                      .withRight(negate(node.right()))
+                      .withValue(new Plus());
+            }
+            return node;
+        });
     }
 
     private static boolean isSubtractionOrAddition(TreeNode node) {
         return node != null && (node.value() instanceof Minus || node.value() instanceof Plus);
     }
 
-    private static TreeNode transformDivisionToMultiplication(TreeNode node) {
-        if (node == null) return null;
-        var oldRight = node.right();
-        if (node.value() instanceof Divide && (isDivisionOrMultiplication(node.left()) || isDivisionOrMultiplication(node.right()))) {
-            var newRight = new TreeNode(new Divide(), TreeNode.ofNumber(1.0), transformDivisionToMultiplication(oldRight));
-            node = node
-                  .withRight(newRight)
-                  .withValue(new Multiply());
-        }
-        return node
-              .withLeft(transformDivisionToMultiplication(node.left()));
+    private static TreeNode transformDivisionToMultiplication(TreeNode root) {
+        return TreeRewriter.rewrite(root, _ -> true, TreeOptimizer::isDivisionToTransform, (node, left, right) -> {
+            if (isDivisionToTransform(node)) {
+                var newRight = new TreeNode(new Divide(), TreeNode.ofNumber(1.0), right);
+                node = node
+                      .withRight(newRight)
+                      .withValue(new Multiply());
+            }
+            return node.withLeft(left);
+        });
+    }
+
+    private static boolean isDivisionToTransform(TreeNode node) {
+        return node.value() instanceof Divide && (isDivisionOrMultiplication(node.left()) || isDivisionOrMultiplication(node.right()));
     }
 
     private static boolean isDivisionOrMultiplication(TreeNode node) {
@@ -234,8 +250,9 @@ public class TreeOptimizer {
         return isNull && isDivisionOrMultiplication;
     }
 
-    private static TreeNode negate(TreeNode node) {
-        return switch (node.value()) {
+    // a call or a power is multiplied by -1
+    private static TreeNode negate(TreeNode root) {
+        return TreeRewriter.rewrite(root, TreeOptimizer::isArithmetic, TreeOptimizer::isAdditive, (node, left, right) -> switch (node.value()) {
             case MNumber number -> {
                 var d = Double.parseDouble(number.value());
                 yield node.withValue(new MNumber(Double.toString(-1 * d)));
@@ -247,11 +264,119 @@ public class TreeOptimizer {
                     yield node.withValue(new Varaible("-" + v.value()));
                 }
             }
-            case Plus _, Minus _ -> node
-                  .withLeft(negate(node.left()))
-                  .withRight(negate(node.right()));
-            case Divide _, Multiply _ -> node.withLeft(negate(node.left()));
-            default -> throw new IllegalStateException("Unexpected value: " + node.value());
-        };
+            case Plus _, Minus _, Divide _, Multiply _ -> node.withChildren(left, right);
+            // the same as the parser makes of a negated call
+            case Function _, Power _ -> new TreeNode(new Multiply(), new TreeNode(new MNumber("-1")), node);
+        });
+    }
+
+    private static boolean isArithmetic(TreeNode node) {
+        return isAdditive(node) || node.value() instanceof Divide || node.value() instanceof Multiply;
+    }
+
+    private static boolean isAdditive(TreeNode node) {
+        return node.value() instanceof Plus || node.value() instanceof Minus;
+    }
+
+    // the same tree as inserting the operator nodes and then the leafs with insert(), done on arrays
+    private static final class BalancedTree {
+        private static final int EMPTY = -1;
+
+        private final MathElement operator;
+        private final boolean brackets;
+        // a child is an operator index, a leaf as -(index + 2) or EMPTY
+        private final int[] lefts;
+        private final int[] rights;
+        private final int[] weights;
+        private final int[] freeSlots;
+        private final int[] path;
+        private List<TreeNode> leafs;
+        private int size;
+
+        BalancedTree(MathElement operator, TreeNode.Result result) {
+            this.operator = operator;
+            this.brackets = result.brackets();
+            int total = result.total();
+            this.lefts = new int[total];
+            this.rights = new int[total];
+            this.weights = new int[total];
+            this.freeSlots = new int[total];
+            this.path = new int[total];
+        }
+
+        TreeNode build(List<TreeNode> leafs) {
+            this.leafs = leafs;
+            addOperator();
+            for (int i = 1; i < lefts.length; i++) {
+                insert(size, 1, 2);
+                addOperator();
+            }
+            for (int i = 0; i < leafs.size(); i++) {
+                var leaf = leafs.get(i);
+                if (leaf != null) {
+                    insert(-(i + 2), leaf.weight(), 0);
+                }
+            }
+            var nodes = new TreeNode[size];
+            // children are always added after their parent
+            for (int i = size - 1; i >= 0; i--) {
+                nodes[i] = new TreeNode(operator, node(lefts[i], nodes), node(rights[i], nodes), i == 0 && brackets);
+            }
+            return nodes[0];
+        }
+
+        private void addOperator() {
+            lefts[size] = EMPTY;
+            rights[size] = EMPTY;
+            weights[size] = 1;
+            freeSlots[size] = 2;
+            size++;
+        }
+
+        private void insert(int target, int targetWeight, int targetFreeSlots) {
+            int depth = 0;
+            int current = 0;
+            while (true) {
+                path[depth++] = current;
+                if (lefts[current] == EMPTY) {
+                    lefts[current] = target;
+                    break;
+                }
+                if (rights[current] == EMPTY) {
+                    rights[current] = target;
+                    break;
+                }
+                int left = lefts[current], right = rights[current];
+                boolean leftFree = freeSlots(left) > 0, rightFree = freeSlots(right) > 0;
+                if (leftFree && weight(left) <= weight(right)) {
+                    current = left;
+                } else if (rightFree && weight(right) < weight(left)) {
+                    current = right;
+                } else if (leftFree) {
+                    current = left;
+                } else if (rightFree) {
+                    current = right;
+                } else {
+                    throw new RuntimeException("Can't insert value = " + operator);
+                }
+            }
+            for (int i = 0; i < depth; i++) {
+                weights[path[i]] += targetWeight;
+                freeSlots[path[i]] += targetFreeSlots - 1;
+            }
+        }
+
+        private int weight(int child) {
+            return child >= 0 ? weights[child] : leafs.get(-child - 2).weight();
+        }
+
+        private int freeSlots(int child) {
+            return child >= 0 ? freeSlots[child] : 0;
+        }
+
+        private TreeNode node(int child, TreeNode[] nodes) {
+            if (child == EMPTY) return null;
+            return child >= 0 ? nodes[child] : leafs.get(-child - 2);
+        }
     }
 }
@@ -0,0 +1,96 @@
+package maksym.perevalov.tree;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Post-order rewriting of a tree with an explicit stack instead of recursion, so the depth of a tree is not limited by the thread stack.
+ * A node is given to the rule once its children are rewritten, the left child always before the right one.
+ * A node shared by a {@link TreeNodeFactory} is rewritten once per walk, every other place it is in gets the same result.
+ */
+public final class TreeRewriter {
+    private static final byte NEW = 0;
+    private static final byte VISITED = 1;
+    private static final byte LEFT = 2;
+    private static final byte RIGHT = 4;
+
+    private TreeRewriter() {
+    }
+
+    @FunctionalInterface
+    public interface Rule {
+        /**
+         * @param left the rewritten left child, or the original one when it is not visited
+         * @param right the rewritten right child, or the original one when it is not visited
+         */
+        TreeNode apply(TreeNode node, TreeNode left, TreeNode right);
+    }
+
+    public static TreeNode rewrite(TreeNode root, Rule rule) {
+        return rewrite(root, _ -> true, _ -> true, rule);
+    }
+
+    /**
+     * Rewrites only the children the predicates accept, the other ones are given to the rule as they are.
+     */
+    public static TreeNode rewrite(TreeNode root, Predicate<TreeNode> visitLeft, Predicate<TreeNode> visitRight, Rule rule) {
+        if (root == null) return null;
+        var nodes = new TreeNode[16];
+        var states = new byte[16];
+        var results = new TreeNode[16];
+        int depth = 0;
+        int resultCount = 0;
+        Map<TreeNode, TreeNode> sharedResults = null;
+        nodes[depth] = root;
+        states[depth++] = NEW;
+        while (depth > 0) {
+            var node = nodes[depth - 1];
+            if (states[depth - 1] == NEW) {
+                var sharedResult = sharedResults == null || node.factory() == null ? null : sharedResults.get(node);
+                if (sharedResult != null) {
+                    nodes[--depth] = null;
+                    if (resultCount == results.length) {
+                        results = Arrays.copyOf(results, results.length * 2);
+                    }
+                    results[resultCount++] = sharedResult;
+                    continue;
+                }
+                byte state = VISITED;
+                if (node.hasLeft() && visitLeft.test(node)) state |= LEFT;
+                if (node.hasRight() && visitRight.test(node)) state |= RIGHT;
+                states[depth - 1] = state;
+                if (depth + 2 > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                    states = Arrays.copyOf(states, states.length * 2);
+                }
+                if ((state & RIGHT) != 0) {
+                    nodes[depth] = node.right();
+                    states[depth++] = NEW;
+                }
+                if ((state & LEFT) != 0) {
+                    nodes[depth] = node.left();
+                    states[depth++] = NEW;
+                }
+                continue;
+            }
+            byte state = states[--depth];
+            nodes[depth] = null;
+            var right = (state & RIGHT) != 0 ? results[--resultCount] : node.right();
+            var left = (state & LEFT) != 0 ? results[--resultCount] : node.left();
+            if (resultCount == results.length) {
+                results = Arrays.copyOf(results, results.length * 2);
+            }
+            var result = rule.apply(node, left, right);
+            if (node.factory() != null) {
+                if (sharedResults == null) {
+                    sharedResults = new IdentityHashMap<>();
+                }
+                sharedResults.put(node, result);
+            }
+            results[resultCount++] = result;
+        }
+        return results[0];
+    }
+}
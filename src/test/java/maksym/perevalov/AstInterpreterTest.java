@@ -0,0 +1,112 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.AstInterpreter;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.FunctionRegistry;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.NativeFunction;
+
+class AstInterpreterTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin", "cos", "max"),
+          Map.of("a", 1.5, "b", -2.0, "c", 3.0, "d", 0.25, "e", 4.0));
+
+    @Test
+    void shouldEvaluateLikeStackMachineWhileRewriting() {
+        var random = new Random(25);
+        for (var expression : List.of(
+              "a*b - sin(c - d)/a + max(b, d)^2 - -a",
+              "a-((b-c-d)-(c-a)-b)-c",
+              "a*2/3 + b/(b+b*0.5-1*b) - 1/(c*2*4.76*(1-2+1.5))",
+              "sin(a)*cos(a) + b*b - c/d + e^3",
+              "5040/8/7/6/5/4/3/2")) {
+            for (var node : rawAndOptimized(expression, MATH_CONTEXT)) {
+                var program = StackProgram.compile(node);
+                var interpreter = new AstInterpreter(program);
+                var machine = new StackMachine(program);
+                var slots = program.slots(MATH_CONTEXT);
+
+                assertEquals(node.compute(MATH_CONTEXT), interpreter.evaluate(slots), expression);
+                for (int evaluation = 0; evaluation < 500; evaluation++) {
+                    // long runs of the same values let subtrees be guarded, a change then takes the guard back
+                    if (evaluation % 100 == 99 && slots.length > 0) {
+                        slots[random.nextInt(slots.length)] = random.nextInt(10) - 5;
+                    } else if (evaluation < 50 && slots.length > 0) {
+                        slots[random.nextInt(slots.length)] = random.nextDouble() * 10 - 5;
+                    }
+
+                    assertEquals(machine.evaluate(slots), interpreter.evaluate(slots), expression);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldSpecializeNodesByOperands() {
+        var interpreter = new AstInterpreter(tree("a*b + c*2 + 3*4 - (d - e)", MATH_CONTEXT));
+
+        assertEquals("SubNode(ProfilingNode(AddConstNode(AddNode(MulSlotSlotNode(0, 1), MulSlotConstNode(2, 2.0)), 12.0)), "
+              + "SubSlotSlotNode(3, 4))", interpreter.toString());
+        assertEquals("ConstNode(6.0)", new AstInterpreter(tree("2^3 - 4/(1 + 1)", MATH_CONTEXT)).toString());
+    }
+
+    @Test
+    void shouldGuardSubtreesWhoseSlotsDoNotChange() {
+        var calls = new AtomicInteger();
+        var functions = FunctionRegistry.builtIns()
+              .with(NativeFunction.unary("slow", x -> {
+                  calls.incrementAndGet();
+                  return Math.sin(x);
+              }));
+        var context = new MathContext(functions, Map.of("a", 1.0, "b", 2.0, "c", 3.0, "d", 4.0, "e", 5.0));
+        var program = StackProgram.compile(tree("slow(a)*slow(b) + c*d + e", context), functions);
+        var interpreter = new AstInterpreter(program);
+        var machine = new StackMachine(program);
+        var slots = program.slots(context);
+
+        for (int evaluation = 0; evaluation < 100; evaluation++) {
+            slots[program.slot("e")] = evaluation;
+            assertEquals(machine.evaluate(slots), interpreter.evaluate(slots));
+        }
+
+        assertTrue(interpreter.toString().startsWith("AddNode(GuardedConstNode("), interpreter.toString());
+        calls.set(0);
+        interpreter.evaluate(slots);
+        assertEquals(0, calls.get());
+
+        slots[program.slot("c")] = -1;
+        assertEquals(machine.evaluate(slots), interpreter.evaluate(slots));
+        assertEquals(4, calls.get());
+        for (int evaluation = 0; evaluation < 100; evaluation++) {
+            interpreter.evaluate(slots);
+        }
+        assertFalse(interpreter.toString().contains("Guarded"), interpreter.toString());
+        assertFalse(interpreter.toString().contains("Profiling"), interpreter.toString());
+    }
+
+    @Test
+    void shouldGuardOnlyPureSubtrees() {
+        var counter = new AtomicInteger();
+        var functions = FunctionRegistry.builtIns()
+              .with(NativeFunction.unary("next", x -> x + counter.incrementAndGet()).impure());
+        var context = new MathContext(functions, Map.of("a", 1.0));
+        var interpreter = new AstInterpreter(StackProgram.compile(tree("next(a) * sin(a) + cos(a)", context), functions));
+        var slots = new double[]{1.0};
+
+        for (int evaluation = 1; evaluation <= 100; evaluation++) {
+            assertEquals((1 + evaluation) * Math.sin(1) + Math.cos(1), interpreter.evaluate(slots));
+        }
+        assertTrue(interpreter.toString().startsWith("AddNode(MulNode(UnaryCallNode[next](SlotNode(0)), GuardedConstNode("),
+              interpreter.toString());
+    }
+}
@@ -0,0 +1,76 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.BatchEvaluator;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+
+class BatchEvaluatorTest {
+    static int ROWS = 3 * BatchEvaluator.BLOCK_SIZE * 17 + 5;
+
+    @Test
+    void shouldUseVectorModule() {
+        var program = StackProgram.compile(tree("a*b - -c", MATH_CONTEXT));
+
+        assertTrue(new BatchEvaluator(program).isVectorized(), "jdk.incubator.vector is not added to the test JVM");
+        assertFalse(BatchEvaluator.scalar(program).isVectorized());
+    }
+
+    @Test
+    void shouldEvaluateLikeStackMachineInEveryRow() {
+        var random = new Random(17);
+        for (var expression : EXPRESSIONS) {
+            for (var node : rawAndOptimized(expression, MATH_CONTEXT)) {
+                var program = StackProgram.compile(node);
+                var columns = new double[program.slotCount()][ROWS];
+                for (var column : columns) {
+                    for (int row = 0; row < ROWS; row++) {
+                        column[row] = random.nextDouble() * 10 - 5;
+                    }
+                }
+                var expected = new double[ROWS];
+                var machine = new StackMachine(program);
+                var slots = new double[program.slotCount()];
+                for (int row = 0; row < ROWS; row++) {
+                    for (int slot = 0; slot < slots.length; slot++) {
+                        slots[slot] = columns[slot][row];
+                    }
+                    expected[row] = machine.evaluate(slots);
+                }
+
+                for (var evaluator : List.of(BatchEvaluator.scalar(program), new BatchEvaluator(program))) {
+                    var result = new double[ROWS];
+                    evaluator.evaluate(columns, result);
+                    assertArrayEquals(expected, result, expression);
+
+                    var parallelResult = new double[ROWS];
+                    evaluator.evaluate(columns, parallelResult, ForkJoinPool.commonPool());
+                    assertArrayEquals(expected, parallelResult, expression);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldMapColumnsBySlot() {
+        var program = StackProgram.compile(tree("a*b - -c", MATH_CONTEXT));
+        var evaluator = new BatchEvaluator(program);
+        var columns = evaluator.columns(Map.of("c", new double[]{1, 2, 3}, "a", new double[]{4, 5, 6}), 3);
+        var result = new double[3];
+
+        evaluator.evaluate(columns, result);
+
+        assertArrayEquals(new double[]{1, 2, 3}, result);
+        assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(columns, new double[4]));
+        assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(new double[1][3], result));
+    }
+}
@@ -0,0 +1,59 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.BytecodeCompiler;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.TreeOptimizer;
+
+class BytecodeCompilerTest {
+    @Test
+    void shouldComputeLikeTreeNode() {
+        assertComputesLikeTree(node -> {
+            var compiled = BytecodeCompiler.compile(node);
+            return compiled.evaluate(compiled.program().bindings(MATH_CONTEXT));
+        });
+    }
+
+    @Test
+    void shouldSplitLargeFormulasIntoMethods() {
+        var random = new Random(18);
+        var chain = new StringBuilder(variable(0));
+        var nested = new StringBuilder();
+        for (int i = 1; i < 20_000; i++) {
+            chain.append(random.nextBoolean() ? " + " : " / ").append(variable(random.nextInt(300)))
+                  .append(" * ").append(random.nextInt(7) + 0.5);
+            nested.append(variable(random.nextInt(300))).append(" - (");
+        }
+        nested.append(variable(0)).append(")".repeat(19_999));
+        var chainTree = tree(chain.toString(), MATH_CONTEXT);
+        for (var node : List.of(chainTree, new TreeOptimizer(chainTree).optimize(), tree(nested.toString(), MATH_CONTEXT))) {
+            var program = StackProgram.compile(node);
+            var slots = new double[program.slotCount()];
+            for (int slot = 0; slot < slots.length; slot++) {
+                slots[slot] = random.nextDouble() + 0.5;
+            }
+
+            assertEquals(new StackMachine(program).evaluate(slots), BytecodeCompiler.compile(program).evaluate(slots));
+        }
+    }
+
+    @Test
+    void shouldDefineHiddenClassesPerExpression() {
+        var program = StackProgram.compile(tree("a*b + c", MATH_CONTEXT));
+        var first = BytecodeCompiler.compile(program);
+        var second = BytecodeCompiler.compile(program);
+
+        assertEquals(3.0, first.evaluate(new double[]{1, 2, 1}));
+        assertTrue(first.formulaClass().isHidden());
+        assertNotSame(first.formulaClass(), second.formulaClass());
+        assertSame(BytecodeCompiler.class.getClassLoader(), first.formulaClass().getClassLoader());
+    }
+}
@@ -0,0 +1,69 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.compiler.Compilation;
+import maksym.perevalov.compiler.CompilationCache;
+import maksym.perevalov.compiler.CompilationCache.Stats;
+import maksym.perevalov.compiler.Compiler;
+import maksym.perevalov.tree.MathContext;
+
+class CompilationCacheTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("f", "g"));
+
+    @Test
+    void shouldReturnCachedCompilation() {
+        var cache = CompilationCache.ofSize(10);
+        var compiler = new Compiler(ForkJoinPool.commonPool(), cache);
+
+        var first = compiler.compile("a + b*c", MATH_CONTEXT);
+        var second = compiler.compile("a + b*c", new MathContext(List.of("g", "f", "g")));
+
+        assertSame(first, second);
+        assertEquals(new Stats(1, 1, 0, 1, 1), cache.stats());
+    }
+
+    @Test
+    void shouldSeparateContextsWithDifferentFunctions() {
+        var compiler = new Compiler(ForkJoinPool.commonPool(), CompilationCache.ofSize(10));
+
+        var withFunction = compiler.compile("f(a, b)", MATH_CONTEXT);
+        var withVariable = compiler.compile("f(a, b)", new MathContext(List.of("g")));
+
+        assertInstanceOf(Compilation.Compiled.class, withFunction);
+        assertInstanceOf(Compilation.Failed.class, withVariable);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsed() {
+        var cache = CompilationCache.ofSize(2);
+        var compiler = new Compiler(ForkJoinPool.commonPool(), cache);
+
+        var a = compiler.compile("a", MATH_CONTEXT);
+        compiler.compile("b", MATH_CONTEXT);
+        compiler.compile("a", MATH_CONTEXT);
+        compiler.compile("c", MATH_CONTEXT);
+
+        assertSame(a, cache.get("a", MATH_CONTEXT));
+        assertNull(cache.get("b", MATH_CONTEXT));
+        assertEquals(1, cache.stats().evictions());
+        assertEquals(2, cache.stats().size());
+    }
+
+    @Test
+    void shouldEvictByWeight() {
+        var cache = CompilationCache.ofWeight(9, CompilationCache::treeWeight);
+        var compiler = new Compiler(ForkJoinPool.commonPool(), cache);
+
+        compiler.compile("a + b", MATH_CONTEXT);
+        compiler.compile("a*b + c*d", MATH_CONTEXT);
+
+        assertEquals(new Stats(0, 2, 1, 1, 7), cache.stats());
+        assertNotNull(cache.get("a*b + c*d", MATH_CONTEXT));
+    }
+}
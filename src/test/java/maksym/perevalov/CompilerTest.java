@@ -0,0 +1,70 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.compiler.Compilation;
+import maksym.perevalov.compiler.Compiler;
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToPostfixTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeBuilder;
+import maksym.perevalov.tree.TreeOptimizer;
+
+class CompilerTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin", "pow"));
+
+    @Test
+    void shouldCompileFormula() {
+        var compilation = new Compiler().compile("a*2/0 + b/(b+b*0-1*b) - 1/(c*2*4.76*(1-2+1))", MATH_CONTEXT);
+
+        var compiled = assertInstanceOf(Compilation.Compiled.class, compilation);
+        assertEquals(sequential(compilation.source()), compiled.tree().toExpressionString());
+    }
+
+    @Test
+    void shouldReportErrorsOfEveryFormula() {
+        var results = new Compiler().compileAll(List.of("a + b", "1 + 2 *", "(a"), MATH_CONTEXT);
+
+        assertInstanceOf(Compilation.Compiled.class, results.get(0));
+        assertEquals(List.of("Math expression cannot end with Operator '*'"), assertInstanceOf(Compilation.Failed.class, results.get(1)).errors());
+        assertEquals(List.of("No closed bracket for '(' at position '1'"), assertInstanceOf(Compilation.Failed.class, results.get(2)).errors());
+    }
+
+    @Test
+    void shouldCompileInParallelTheSameWayAsSequentially() {
+        var sources = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            var term = "pow(h, 2) + a - (b*%d - c/%d)*-d + %d*(e - f/g) - 2".formatted(i % 7, i % 5 + 1, i % 3);
+            sources.add(String.join(" + ", Collections.nCopies(1 + i % 4, term)));
+        }
+        var pool = new ForkJoinPool(4);
+
+        var results = new Compiler(pool).compileAll(sources, MATH_CONTEXT);
+
+        pool.shutdown();
+        assertEquals(sources.size(), results.size());
+        for (int i = 0; i < sources.size(); i++) {
+            assertEquals(sources.get(i), results.get(i).source());
+            var compiled = assertInstanceOf(Compilation.Compiled.class, results.get(i));
+            assertEquals(sequential(sources.get(i)), compiled.tree().toExpressionString());
+        }
+    }
+
+    private static String sequential(String source) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).tokenize(source);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parse();
+        var tree = new TreeBuilder().buildTree(new InfixToPostfixTransformer().transform(syntaxTokens));
+        return new TreeOptimizer(tree).optimize().toExpressionString();
+    }
+}
@@ -0,0 +1,107 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.model.InstructionBuilder;
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.TokenBuffer;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Runs on a thread with a small stack, so any recursion over the depth of a tree fails.
+ */
+class DeepTreeTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("pow"), Map.of("a", 1.0, "b", 2.0));
+    static int TERMS = 50_000;
+    static long STACK_SIZE = 256 * 1024;
+
+    @Test
+    void shouldCompileAndComputeLongChain() throws Throwable {
+        var expression = new StringBuilder("a");
+        for (int i = 1; i < TERMS; i++) {
+            expression.append(i % 2 == 0 ? "-a" : "-b");
+        }
+        var tokens = syntaxTokens(expression.toString());
+
+        runWithSmallStack(() -> {
+            var tree = new InfixToTreeTransformer().transform(tokens);
+            assertEquals(TERMS, tree.height());
+            double expected = 1 - (TERMS / 2) * 2.0 - (TERMS / 2 - 1) * 1.0;
+            assertEquals(expected, tree.compute(MATH_CONTEXT));
+            assertEquals(expression.toString().replace("-", " - "), tree.toExpressionString());
+
+            var optimized = new TreeOptimizer(tree).optimize();
+            assertTrue(optimized.height() < 40, "height " + optimized.height());
+            assertEquals(expected, optimized.compute(MATH_CONTEXT));
+            assertFalse(new InstructionBuilder(Map.of("+", 1, "-", 1)).buildInstructions(optimized).isEmpty());
+        });
+    }
+
+    @Test
+    void shouldCompileAndComputeDeepBrackets() throws Throwable {
+        int depth = 10_000;
+        var expression = "(a+".repeat(depth) + "b" + ")".repeat(depth);
+        var tokens = syntaxTokens(expression);
+
+        runWithSmallStack(() -> {
+            var tree = new InfixToTreeTransformer().transform(tokens);
+            assertEquals(depth + 1, tree.height());
+            assertEquals(depth + 2.0, tree.compute(MATH_CONTEXT));
+            assertEquals(expression.replace("+", " + "), tree.toExpressionString());
+
+            var optimized = new TreeOptimizer(tree).optimize();
+            assertEquals(depth + 2.0, optimized.compute(MATH_CONTEXT));
+        });
+    }
+
+    @Test
+    void shouldInsertIntoDeepTree() throws Throwable {
+        runWithSmallStack(() -> {
+            var tree = new TreeNode(new MathElement.Plus());
+            for (int i = 0; i < TERMS; i++) {
+                tree = new TreeNode(new MathElement.Plus(), tree, TreeNode.ofNumber(1.0));
+            }
+            var completed = tree.insert(TreeNode.ofNumber(2.0)).insert(TreeNode.ofNumber(3.0));
+
+            assertFalse(TreeNode.hasFree(completed));
+            assertEquals(TERMS + 5.0, completed.compute(MATH_CONTEXT));
+        });
+    }
+
+    private static void runWithSmallStack(Runnable test) throws Throwable {
+        var failure = new AtomicReference<Throwable>();
+        var thread = new Thread(null, () -> {
+            try {
+                test.run();
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        }, "small-stack", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private static TokenBuffer syntaxTokens(String expression) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).scan(expression);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        assertEquals(List.of(), errorCollector.report());
+        return syntaxTokens;
+    }
+}
@@ -0,0 +1,99 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.FormulaValidator;
+import maksym.perevalov.parser.StreamParser;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.MathContext;
+
+class ErrorCollectorTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin"));
+    static String GARBAGE = "1 ++ 2, a$ ) ";
+
+    @Test
+    void shouldKeepOnlyFirstErrorsWithLimit() {
+        var errorCollector = new ErrorCollector(3);
+
+        parse(GARBAGE.repeat(10), errorCollector);
+
+        assertEquals(3, errorCollector.report().size());
+        assertTrue(errorCollector.isFull());
+    }
+
+    @Test
+    void shouldKeepAllErrorsByDefault() {
+        var errorCollector = new ErrorCollector();
+
+        parse(GARBAGE.repeat(10), errorCollector);
+
+        assertTrue(errorCollector.report().size() > 10);
+        assertFalse(errorCollector.isFull());
+    }
+
+    @Test
+    void shouldIterateMessagesInReportOrder() {
+        var errorCollector = new ErrorCollector();
+        parse(GARBAGE.repeat(3), errorCollector);
+
+        var messages = new ArrayList<String>();
+        errorCollector.messages().forEachRemaining(messages::add);
+
+        assertEquals(errorCollector.report(), messages);
+    }
+
+    @Test
+    void shouldStopReadingAfterFirstError() throws IOException {
+        var input = GARBAGE.repeat(Tokenizer.CHUNK_SIZE);
+        var reader = new CountingReader(input);
+
+        new StreamParser(MATH_CONTEXT, ErrorCollector.failFast()).parse(reader);
+
+        assertEquals(Tokenizer.CHUNK_SIZE, reader.read);
+    }
+
+    @Test
+    void shouldTellValidityWithoutFullReport() {
+        var validator = new FormulaValidator(MATH_CONTEXT);
+
+        assertTrue(validator.isValid("sin(a) + -2*b"));
+        assertFalse(validator.isValid("sin(a) + (2*b"));
+        assertFalse(validator.isValid(GARBAGE.repeat(1000)));
+    }
+
+    private static void parse(String input, ErrorCollector errorCollector) {
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).scan(input);
+        new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+    }
+
+    private static final class CountingReader extends Reader {
+        private final Reader reader;
+        private int read;
+
+        CountingReader(String input) {
+            this.reader = new StringReader(input);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = reader.read(buffer, offset, length);
+            read += Math.max(count, 0);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.EvaluationSession;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.FunctionRegistry;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.NativeFunction;
+import maksym.perevalov.tree.TreeOptimizer;
+
+class EvaluationSessionTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin", "max"), Map.of("a", 1.5, "b", -2.0, "c", 3.0, "d", 0.25));
+
+    @Test
+    void shouldEvaluateLikeStackMachineAfterEveryUpdate() {
+        var random = new Random(23);
+        for (var expression : List.of(
+              "a*b - sin(c - d)/a + max(b, d)^2 - -a",
+              "a-((b-c-d)-(c-a)-b)-c",
+              "5040/8/7/6/5/4/3/2")) {
+            for (var node : rawAndOptimized(expression, MATH_CONTEXT)) {
+                var program = StackProgram.compile(node);
+                var session = new EvaluationSession(program, MATH_CONTEXT);
+                var machine = new StackMachine(program);
+                var slots = program.slots(MATH_CONTEXT);
+
+                assertEquals(node.compute(MATH_CONTEXT), session.value(), expression);
+                for (int update = 0; update < 50; update++) {
+                    var variable = List.of("a", "b", "c", "d", "-a").get(random.nextInt(5));
+                    double value = random.nextInt(10) - 5;
+                    session.set(variable, value);
+                    int slot = program.slot(variable);
+                    if (slot >= 0) {
+                        slots[slot] = variable.startsWith("-") ? -value : value;
+                    }
+
+                    assertEquals(machine.evaluate(slots), session.value(), expression);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldRecomputeOnlyThePathOfTheChangedVariable() {
+        var formula = new StringBuilder();
+        for (int i = 0; i < 600; i++) {
+            formula.append(i == 0 ? "" : i % 2 == 0 ? " + " : " - ").append(variable(i)).append("*").append(i % 7 + 1);
+        }
+        var context = new MathContext(List.of(), Map.of());
+        var tree = new TreeOptimizer(tree(formula.toString(), context)).optimize();
+        var program = StackProgram.compile(tree);
+        var session = new EvaluationSession(program, context);
+
+        session.value();
+        assertEquals(program.size(), session.recomputed());
+        session.value();
+        assertEquals(0, session.recomputed());
+
+        session.set(variable(321), 2.0);
+        double value = session.value();
+
+        assertTrue(session.recomputed() <= tree.height(), session.recomputed() + " > " + tree.height());
+        var slots = new double[program.slotCount()];
+        slots[program.slot(variable(321))] = 2.0;
+        assertEquals(new StackMachine(program).evaluate(slots), value);
+
+        session.set(variable(321), 2.0).set("unknown", 1.0);
+        session.value();
+        assertEquals(0, session.recomputed());
+    }
+
+    @Test
+    void shouldRecomputeImpureCallsEveryTime() {
+        var counter = new AtomicInteger();
+        var functions = FunctionRegistry.builtIns()
+              .with(NativeFunction.unary("next", x -> x + counter.incrementAndGet()).impure());
+        var context = new MathContext(functions, Map.of("a", 1.0));
+        var program = StackProgram.compile(tree("next(a) + a*2 + sin(a)", context), functions);
+        var session = new EvaluationSession(program, context);
+
+        assertEquals(1 + 1 + 2 + Math.sin(1), session.value());
+        assertEquals(1 + 2 + 2 + Math.sin(1), session.value());
+        assertEquals(3, session.recomputed());
+    }
+}
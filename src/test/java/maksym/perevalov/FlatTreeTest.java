@@ -0,0 +1,73 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.FlatTree;
+import maksym.perevalov.tree.InfixToPostfixTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.PostfixProgram;
+import maksym.perevalov.tree.TreeBuilder;
+import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeOptimizer;
+
+class FlatTreeTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("pow"), Map.of("a", 1.0, "b", 2.0, "c", 3.0, "d", 4.0, "e", 5.0));
+    static List<String> EXPRESSIONS = List.of(
+          "a+b+c+d+e",
+          "a-((b-c-d)-(e-a)-b)-c",
+          "5040/8/7/6/5/4/3/2",
+          "a*2/3 + b/(b+b*0.5-1*b) - 1/(c*2*4.76*(1-2+1.5))",
+          "-(5 + 1) * -a - pow(a, 2^3) / 2.0"
+    );
+
+    @Test
+    void shouldAnswerQueriesLikeTreeNode() {
+        for (var expression : EXPRESSIONS) {
+            var program = program(expression);
+            var tree = new TreeBuilder().buildTree(program);
+            for (var node : List.of(tree, new TreeOptimizer(tree).optimize())) {
+                var flatTree = FlatTree.of(node);
+
+                assertEquals(node.height(), flatTree.height(), expression);
+                assertEquals(node.weight(), flatTree.weight(), expression);
+                assertEquals(node.compute(MATH_CONTEXT), flatTree.compute(MATH_CONTEXT), expression);
+                assertEquals(node.toExpressionString(), flatTree.toExpressionString(), expression);
+            }
+        }
+    }
+
+    @Test
+    void shouldConvertWithoutLoss() {
+        for (var expression : EXPRESSIONS) {
+            var program = program(expression);
+            var tree = new TreeOptimizer(new TreeBuilder().buildTree(program)).optimize();
+
+            var fromProgram = new TreeBuilder().buildFlatTree(program).toTreeNode();
+
+            assertEquals(describe(new TreeBuilder().buildTree(program)), describe(fromProgram), expression);
+            assertEquals(describe(tree), describe(FlatTree.of(tree).toTreeNode()), expression);
+        }
+    }
+
+    private static String describe(TreeNode node) {
+        if (node == null) return "_";
+        var children = node.hasLeft() || node.hasRight() ? "(%s %s)".formatted(describe(node.left()), describe(node.right())) : "";
+        return (node.isBrackets() ? "[" : "") + node.value() + children + (node.isBrackets() ? "]" : "");
+    }
+
+    private static PostfixProgram program(String expression) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).scan(expression);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        return new InfixToPostfixTransformer().compile(syntaxTokens);
+    }
+}
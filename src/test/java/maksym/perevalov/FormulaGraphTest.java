@@ -0,0 +1,100 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.compiler.Compiler;
+import maksym.perevalov.compiler.FormulaGraph;
+import maksym.perevalov.tree.MathContext;
+
+class FormulaGraphTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("max"), Map.of("revenue", 100.0, "cost", 60.0));
+
+    @Test
+    void shouldEvaluateFormulasThatReadEachOther() {
+        var graph = new FormulaGraph(MATH_CONTEXT)
+              .define("ratio", "margin / revenue")
+              .define("margin", "revenue - cost")
+              .define("bonus", "max(margin - target, 0) * share");
+        graph.set("target", 30).set("share", 0.5);
+
+        assertEquals(0.4, graph.get("ratio"));
+        assertEquals(5.0, graph.get("bonus"));
+        var order = graph.evaluationOrder();
+        assertTrue(order.indexOf("margin") < order.indexOf("ratio"));
+        assertTrue(order.indexOf("revenue") < order.indexOf("margin"));
+        assertTrue(order.indexOf("target") < order.indexOf("bonus"));
+
+        graph.set("cost", 80);
+
+        assertEquals(0.2, graph.get("ratio"));
+        assertEquals(0.0, graph.get("bonus"));
+        assertEquals(3, graph.evaluated());
+    }
+
+    @Test
+    void shouldStopWhereValueDoesNotChange() {
+        var graph = new FormulaGraph(MATH_CONTEXT)
+              .define("capped", "max(revenue, 500)")
+              .define("double", "capped * 2")
+              .define("triple", "double + capped");
+
+        assertEquals(1500.0, graph.get("triple"));
+
+        graph.set("revenue", 200);
+
+        assertEquals(1500.0, graph.get("triple"));
+        assertEquals(1, graph.evaluated());
+    }
+
+    @Test
+    void shouldRejectCycles() {
+        var graph = new FormulaGraph(MATH_CONTEXT)
+              .define("a", "b + 1")
+              .define("b", "c * 2");
+
+        var error = assertThrows(IllegalArgumentException.class, () -> graph.define("c", "a - 1"));
+        assertEquals("Formula 'c' makes a cycle: c -> a -> b -> c", error.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> graph.define("d", "d + 1"));
+        assertThrows(IllegalArgumentException.class, () -> graph.define("e", "1 + "));
+
+        graph.set("c", 4);
+        assertEquals(9.0, graph.get("a"));
+        graph.define("c", "revenue - cost");
+        assertEquals(81.0, graph.get("a"));
+        assertThrows(IllegalArgumentException.class, () -> graph.get("unknown"));
+    }
+
+    @Test
+    void shouldEvaluateWideLevelsInParallel() {
+        var pool = new ForkJoinPool(4);
+        try {
+            var graph = new FormulaGraph(MATH_CONTEXT, new Compiler(pool), pool);
+            var total = new StringBuilder("revenue");
+            for (int i = 0; i < 200; i++) {
+                var name = name(i);
+                graph.define(name, "revenue * %d - cost".formatted(i));
+                total.append(" + ").append(name);
+            }
+            graph.define("total", total.toString());
+
+            assertEquals(100 + 199 * 200 / 2 * 100 - 200 * 60, graph.get("total"));
+
+            graph.set("cost", 0);
+
+            assertEquals(100 + 199 * 200 / 2 * 100, graph.get("total"));
+            assertEquals(201, graph.evaluated());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String name(int index) {
+        return "cell" + (char) ('a' + index / 26) + (char) ('a' + index % 26);
+    }
+}
@@ -0,0 +1,53 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.FormulaValidator;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.MathContext;
+
+class FormulaValidatorTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin", "max"));
+
+    @Test
+    void shouldAcceptCorrectFormula() {
+        var validation = new FormulaValidator(MATH_CONTEXT).validate("-(a + 12.25*b) / max(sin(x), -2)");
+
+        assertTrue(validation.valid());
+        assertNull(validation.firstError());
+    }
+
+    @Test
+    void shouldReportTheFirstErrorOfFullParse() {
+        for (var input : List.of("1 + 2 *", ")1 + 2", "a$ + 2", "(1 2", "1, 2", "sin(1 ++ 2))")) {
+            var validation = new FormulaValidator(MATH_CONTEXT).validate(input);
+
+            assertFalse(validation.valid(), input);
+            assertEquals(report(input).getFirst(), validation.firstError(), input);
+        }
+    }
+
+    @Test
+    void shouldValidateFormulaLongerThanChunk() {
+        var formula = "(a + 12.25*b) - sin(x) * ".repeat(Tokenizer.CHUNK_SIZE / 10) + "c";
+
+        assertTrue(new FormulaValidator(MATH_CONTEXT).validate(formula).valid());
+
+        var broken = formula + " + ((c";
+        assertEquals(report(broken).getFirst(), new FormulaValidator(MATH_CONTEXT).validate(broken).firstError());
+    }
+
+    private static List<String> report(String input) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).tokenize(input);
+        new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parse();
+        return errorCollector.report();
+    }
+}
@@ -0,0 +1,101 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.BatchEvaluator;
+import maksym.perevalov.eval.BytecodeCompiler;
+import maksym.perevalov.eval.MethodHandleCompiler;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.FunctionRegistry;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.NativeFunction;
+
+class FunctionRegistryTest {
+    static FunctionRegistry FUNCTIONS = FunctionRegistry.builtIns()
+          .with(NativeFunction.unary("cube", x -> x * x * x))
+          .with(NativeFunction.binary("mid", (x, y) -> (x + y) / 2));
+    static MathContext MATH_CONTEXT = new MathContext(FUNCTIONS, Map.of("a", 1.5, "b", -2.0, "c", 3.0, "d", 0.25));
+    static List<String> EXPRESSIONS = List.of(
+          "sin(a) + max(a, b, c) - pow(2, 3) + 2^3",
+          "sqrt(abs(b)) * min(c, d) - -cos(a*b)",
+          "cube(a - 1) / mid(b, c) - -mid(2, cube(d))",
+          "exp(a) - log(c) + tan(d) + max(a) - min(b)",
+          "a - sin(b - cube(c)) * 2"
+    );
+
+    @Test
+    void shouldApplyFunctionsInEveryBackend() {
+        for (var expression : EXPRESSIONS) {
+            for (var node : rawAndOptimized(expression, MATH_CONTEXT)) {
+                double expected = node.compute(MATH_CONTEXT);
+                var program = StackProgram.compile(node, MATH_CONTEXT.functions());
+                var slots = program.slots(MATH_CONTEXT);
+
+                assertEquals(expected, new StackMachine(program).evaluate(slots), expression);
+                assertEquals(expected, BytecodeCompiler.compile(program).evaluate(slots), expression);
+                assertEquals(expected, MethodHandleCompiler.compile(program).evaluate(slots), expression);
+                var columns = new double[slots.length][3];
+                for (int slot = 0; slot < slots.length; slot++) {
+                    columns[slot] = new double[]{slots[slot], slots[slot], slots[slot]};
+                }
+                for (var evaluator : List.of(BatchEvaluator.scalar(program), new BatchEvaluator(program))) {
+                    var result = new double[3];
+                    evaluator.evaluate(columns, result);
+                    assertArrayEquals(new double[]{expected, expected, expected}, result, expression);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldComputeBuiltIns() {
+        var node = tree("sin(a) + max(a, b, c) - pow(2, 3) + 2^3 + sqrt(abs(b))", MATH_CONTEXT);
+
+        assertEquals(Math.sin(1.5) + 3.0 - 8.0 + 8.0 + Math.sqrt(2.0), node.compute(MATH_CONTEXT));
+    }
+
+    @Test
+    void shouldFoldPureCallsOfConstants() {
+        var program = StackProgram.compile(tree("sqrt(4) + pow(2, 3)*a", MATH_CONTEXT), FUNCTIONS);
+
+        assertEquals(0, program.callCount());
+        assertEquals(2 + 8 * 1.5, new StackMachine(program).evaluate(program.slots(MATH_CONTEXT)));
+
+        var impure = FUNCTIONS.with(FUNCTIONS.function("sqrt").impure());
+        assertEquals(1, StackProgram.compile(tree("sqrt(4) + a", MATH_CONTEXT), impure).callCount());
+    }
+
+    @Test
+    void shouldCheckArity() {
+        assertThrows(IllegalArgumentException.class, () -> tree("sin(a, b)", MATH_CONTEXT).compute(MATH_CONTEXT));
+        assertThrows(IllegalArgumentException.class, () -> StackProgram.compile(tree("mid(a)", MATH_CONTEXT), FUNCTIONS));
+    }
+
+    @Test
+    void shouldKnowDeclaredNamesWithoutImplementation() {
+        var context = new MathContext(List.of("sin", "foo"), Map.of("a", 1.0));
+        var tree = new InfixToTreeTransformer().transform(syntaxTokens("foo(a) + sin(a)", context));
+
+        assertTrue(context.isFunction("foo"));
+        assertEquals(Math.sin(1.0), context.function("sin").apply(1, 1.0, 0));
+        assertThrows(IllegalStateException.class, () -> tree.compute(context));
+    }
+
+    @Test
+    void shouldFindNamesInCharacters() {
+        var chars = "2*mid(a, b)".toCharArray();
+
+        assertEquals("mid", FUNCTIONS.find(chars, 2, 3).name());
+        assertNull(FUNCTIONS.find(chars, 2, 2));
+        assertNull(FUNCTIONS.find("unknown"));
+        assertThrows(IllegalStateException.class, () -> FUNCTIONS.function("unknown"));
+    }
+}
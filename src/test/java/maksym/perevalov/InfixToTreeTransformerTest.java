@@ -0,0 +1,89 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.TokenBuffer;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToPostfixTransformer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeBuilder;
+import maksym.perevalov.tree.TreeNode;
+
+class InfixToTreeTransformerTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin", "pow", "max"));
+
+    @Test
+    void shouldBuildTheSameTreeAsPostfixPath() {
+        var expressions = List.of(
+          "a+b+c+d+e+f+g+d",
+          "a+b+c+d+e+f+g+d+(a+b+c+d+e+f+g+d)/(a+b+c+d+e+f+g+d)",
+          "a-((b-c-d)-(e-f)-g)-s",
+          "5040/8/7/6/5/4/3/2",
+          "64-(32-16)-8-(4-2-1)",
+          "a*b - b*c - c*d - a*c*(b-d/e/f/g) - (g - h) - (i-j)",
+          "a*2/0 + b/(b+b*0-1*b) - 1/(c*2*4.76*(1-2+1))",
+          "-i/1.0 + 0 - 0*k*h + 2 - 4.8/2 + 1*e/2",
+          "-(5 + 1) * -x",
+          "2^3^2*4",
+          "((((a))))",
+          "2*pow(a+b, c)+1",
+          "max(b / -a - -b*-a*c, a)",
+          "sin(x)^2 - sin(-x)",
+          "max(a, b - c, pow(d, 2)^2, (e))",
+          "sin(max(a, sin(b*c)) - pow(a, b)*c) / sin()"
+        );
+
+        for (var expression : expressions) {
+            var tokens = syntaxTokens(expression);
+            var expected = new TreeBuilder().buildTree(new InfixToPostfixTransformer().transform(tokens.toSyntaxTokens()));
+
+            var tree = new InfixToTreeTransformer().transform(tokens);
+
+            assertEquals(describe(expected), describe(tree), expression);
+        }
+    }
+
+    @Test
+    void shouldBuildFunctionCalls() {
+        assertEquals("(sin [x])", describe(transform("sin(x)")));
+        assertEquals("(+ (sin) 1)", describe(transform("sin() + 1")));
+        assertEquals("(max (max 1 2) [3])", describe(transform("max(1, 2, 3)")));
+        assertEquals("(* -1 (sin [(+ a b)]))", describe(transform("-sin(a + b)")));
+    }
+
+    @Test
+    void shouldBuildRightAssociativePower() {
+        assertEquals("(^ 2 (^ 3 2))", describe(transform("2^3^2")));
+        assertEquals("(* (^ 2 (^ 3 2)) 4)", describe(transform("2^3^2*4")));
+        assertEquals("(^ [(^ 2 3)] 2)", describe(transform("(2^3)^2")));
+        assertEquals(512.0, transform("2^3^2").compute(MATH_CONTEXT));
+    }
+
+    private TreeNode transform(String expression) {
+        return new InfixToTreeTransformer().transform(syntaxTokens(expression));
+    }
+
+    private static String describe(TreeNode node) {
+        if (node == null) return "";
+        var value = node.hasLeft() || node.hasRight() || !node.isValue()
+              ? "(%s %s %s)".formatted(node.value().value(), describe(node.left()), describe(node.right())).replace(" )", ")").replace(" )", ")")
+              : node.value().value();
+        return node.isBrackets() ? "[" + value + "]" : value;
+    }
+
+    private static TokenBuffer syntaxTokens(String expression) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).scan(expression);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        assertEquals(List.of(), errorCollector.report());
+        return syntaxTokens;
+    }
+}
@@ -0,0 +1,47 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.MethodHandleCompiler;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.FunctionRegistry;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.NativeFunction;
+
+class MethodHandleCompilerTest {
+    @Test
+    void shouldComputeLikeTreeNode() {
+        assertComputesLikeTree(node -> {
+            var compiled = MethodHandleCompiler.compile(node);
+            var slots = compiled.program().slots(MATH_CONTEXT);
+            var invoker = new ConstantCallSite(MethodHandleCompiler.handle(compiled.program())).dynamicInvoker();
+            try {
+                assertEquals(compiled.evaluate(slots), (double) invoker.invokeExact(slots));
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+            return compiled.evaluate(slots);
+        });
+    }
+
+    @Test
+    void shouldBindIntrinsicsAndFunctions() {
+        var functions = FunctionRegistry.builtIns().with(NativeFunction.binary("mid", (x, y) -> (x + y) / 2));
+        var context = new MathContext(functions, Map.of("a", 1.5, "b", -2.0, "c", 3.0));
+        var program = StackProgram.compile(tree("max(a) - min(b, c) + sin(a) * mid(b, c)", context), functions);
+
+        var handle = MethodHandleCompiler.handle(program);
+
+        assertEquals(MethodType.methodType(double.class, double[].class), handle.type());
+        var slots = program.slots(context);
+        assertEquals(new StackMachine(program).evaluate(slots), MethodHandleCompiler.compile(program).evaluate(slots));
+    }
+}
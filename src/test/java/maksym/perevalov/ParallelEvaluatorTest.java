@@ -0,0 +1,53 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.eval.ParallelEvaluator;
+import maksym.perevalov.tree.MathContext;
+
+class ParallelEvaluatorTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("sin", "max"), Map.of("a", 1.5, "b", -2.0, "c", 3.0, "d", 0.25));
+
+    @Test
+    void shouldComputeLikeTreeNode() {
+        var pool = new ForkJoinPool(4);
+        try {
+            var formula = new StringBuilder("a");
+            for (int i = 0; i < 3000; i++) {
+                formula.append(switch (i % 4) {
+                    case 0 -> " + a*b";
+                    case 1 -> " - sin(c - %d)".formatted(i);
+                    case 2 -> " + max(d, b/%d)".formatted(i);
+                    default -> " - (c - a*%d)".formatted(i);
+                });
+            }
+            for (var node : rawAndOptimized(formula.toString(), MATH_CONTEXT)) {
+                for (int threshold : new int[]{1, 16, 1000, ParallelEvaluator.DEFAULT_THRESHOLD}) {
+                    var evaluator = new ParallelEvaluator(MATH_CONTEXT, threshold);
+
+                    assertEquals(node.compute(MATH_CONTEXT), evaluator.evaluate(node, pool), "threshold " + threshold);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void shouldComputeSmallTreesAndCalls() {
+        var evaluator = new ParallelEvaluator(MATH_CONTEXT, 1);
+        for (var expression : List.of("a", "-(a - b)*c", "sin(a + b) - max(c, d*a)", "max(sin(a), max(b, c))*2")) {
+            var node = tree(expression, MATH_CONTEXT);
+
+            assertEquals(node.compute(MATH_CONTEXT), evaluator.evaluate(node), expression);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ParallelEvaluator(MATH_CONTEXT, 0));
+    }
+}
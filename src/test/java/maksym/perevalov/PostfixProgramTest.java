@@ -0,0 +1,86 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.tree.PostfixProgram.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToPostfixTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.PostfixProgram;
+import maksym.perevalov.tree.TreeBuilder;
+
+class PostfixProgramTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("pow"));
+
+    @Test
+    void shouldEmitOpcodesWithConstantPoolAndSymbols() {
+        var program = compile("-2*(x + 1.5) - pow(x, y)");
+
+        assertArrayEquals(new int[]{CONSTANT, VARIABLE, CONSTANT, ADD, BRACKETS, MULTIPLY, VARIABLE, VARIABLE, BRACKETS, CALL, SUBTRACT}, opcodes(program));
+        assertEquals(2, program.constantCount());
+        assertEquals(-2.0, program.constant(program.operand(0)));
+        assertEquals(1.5, program.constant(program.operand(2)));
+        assertEquals("-2", program.literal(program.operand(0)));
+        assertEquals(List.of("x", "y", "pow"), List.of(program.symbol(0), program.symbol(1), program.symbol(2)));
+        assertEquals(program.operand(1), program.operand(6));
+        assertEquals("pow", program.symbol(program.operand(9)));
+        assertEquals(2, program.arity(9));
+    }
+
+    @Test
+    void shouldBuildTheSameTreeAsFromElements() {
+        var program = compile("a*2/0 + b/(b+b*0-1*b) - 1/(c*2*4.76*(1-2+1)) + pow(a, 2^3^2)");
+        var treeBuilder = new TreeBuilder();
+
+        var fromElements = treeBuilder.buildTree(program.toElements());
+        var fromProgram = treeBuilder.buildTree(program);
+
+        assertEquals(fromElements.toExpressionString(), fromProgram.toExpressionString());
+        assertEquals(fromElements.compute(MATH_CONTEXT), fromProgram.compute(MATH_CONTEXT));
+    }
+
+    @Test
+    void shouldBuildCallsLikeInfixToTree() {
+        var context = new MathContext(List.of("sin", "max"), Map.of("a", 1.5, "b", -2.0, "c", 3.0, "d", 0.25, "x", 0.5));
+        var treeBuilder = new TreeBuilder();
+        for (var expression : List.of(
+              "sin(x)",
+              "max(a - b * c, d)",
+              "max(a, b, c*d) + sin(sin(x)^2)",
+              "2*sin(a - b)^2 - max(sin(c), (d))",
+              "sin() + 1")) {
+            var expected = Trees.tree(expression, context);
+            var program = new InfixToPostfixTransformer().compile(Trees.syntaxTokens(expression, context));
+
+            assertEquals(expected, treeBuilder.buildTree(program.toElements()), expression);
+            assertEquals(expected, treeBuilder.buildTree(program), expression);
+            assertEquals(expected, treeBuilder.buildFlatTree(program).toTreeNode(), expression);
+        }
+        var program = new InfixToPostfixTransformer().compile(Trees.syntaxTokens("max(a - b * c, d) / sin(x)", context));
+        assertEquals(Math.max(1.5 + 2.0 * 3.0, 0.25) / Math.sin(0.5), treeBuilder.buildTree(program).compute(context));
+        assertEquals(Math.max(1.5 + 2.0 * 3.0, 0.25) / Math.sin(0.5), treeBuilder.buildFlatTree(program).compute(context));
+    }
+
+    private static int[] opcodes(PostfixProgram program) {
+        var opcodes = new int[program.size()];
+        for (int i = 0; i < program.size(); i++) {
+            opcodes[i] = program.opcode(i);
+        }
+        return opcodes;
+    }
+
+    private static PostfixProgram compile(String expression) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).scan(expression);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        return new InfixToPostfixTransformer().compile(syntaxTokens);
+    }
+}
@@ -0,0 +1,79 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeOptimizer;
+
+class StackMachineTest {
+    @Test
+    void shouldComputeLikeTreeNode() {
+        assertComputesLikeTree(node -> {
+            var program = StackProgram.compile(node);
+            return new StackMachine(program).evaluate(program.slots(MATH_CONTEXT));
+        });
+    }
+
+    @Test
+    void shouldShareSlotOfNegatedVariable() {
+        var program = StackProgram.compile(tree("-a*-b - -c/d + a", MATH_CONTEXT));
+
+        assertEquals(List.of("a", "b", "c", "d"), program.variables());
+        assertEquals(2, program.slot("c"));
+        assertEquals(2, program.slot("-c"));
+        assertEquals(-1, program.slot("e"));
+        assertEquals(1.5 * -2.0 - -3.0 / 4.0 + 1.5, new StackMachine(program).evaluate(new double[]{1.5, -2.0, 3.0, 4.0}));
+    }
+
+    @Test
+    void shouldEvaluateBindings() {
+        var program = StackProgram.compile(new TreeOptimizer(tree("a - (b - c*d)", MATH_CONTEXT)).optimize());
+        var machine = new StackMachine(program);
+        var bindings = program.bindings();
+
+        bindings.setAll(Map.of("a", 1.0, "b", 2.0, "c", 3.0, "e", 5.0)).set("-d", -4.0);
+
+        assertEquals(1.0 - (2.0 - 3.0 * 4.0), machine.evaluate(bindings));
+        assertEquals(4.0, bindings.get(program.slot("d")));
+
+        bindings.set(program.slot("a"), 10.0);
+
+        assertEquals(10.0 - (2.0 - 3.0 * 4.0), machine.evaluate(bindings));
+        assertEquals(machine.evaluate(bindings), machine.evaluate(program.bindings(new MathContext(List.of(),
+              Map.of("a", 10.0, "b", 2.0, "c", 3.0, "d", 4.0)))));
+        assertThrows(IllegalArgumentException.class, () -> machine.evaluate(StackProgram.compile(tree("a", MATH_CONTEXT)).bindings()));
+    }
+
+    @Test
+    void shouldNotAllocateOnEvaluation() {
+        var program = StackProgram.compile(tree(EXPRESSIONS.get(3), MATH_CONTEXT));
+        var machine = new StackMachine(program);
+        var slots = program.slots(MATH_CONTEXT);
+        var threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int evaluations = 100_000;
+        double sum = 0;
+        for (int i = 0; i < evaluations; i++) {
+            sum += machine.evaluate(slots);
+        }
+
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < evaluations; i++) {
+            sum += machine.evaluate(slots);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+        assertTrue(allocated < evaluations, "allocated " + allocated + " bytes");
+        assertFalse(Double.isNaN(sum));
+    }
+}
@@ -0,0 +1,100 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.StreamParser;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.SyntaxParser.SyntaxToken;
+import maksym.perevalov.parser.TokenBuffer;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.MathContext;
+
+class StreamParserTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("min"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldParseEverySourceLikeString() throws IOException {
+        for (var input : List.of(
+              "(a + ю) * min(b, 2.5)",
+              repeated("12.5 * юя - min(ab, 3) + "),
+              repeated("𝑥 * 2 - (b𝑦 + 1) / "),
+              splitAtChunkBorder("abcdef"),
+              splitAtChunkBorder("юяюя"),
+              splitAtChunkBorder("𝑥𝑦"))) {
+            var expected = parseString(input);
+            var bytes = input.getBytes(StandardCharsets.UTF_8);
+            var file = Files.write(directory.resolve("input.txt"), bytes);
+
+            assertEquals(expected, parse(parser -> parser.parse(new StringReader(input))), "reader");
+            assertEquals(expected, parse(parser -> parser.parse(
+                  Channels.newChannel(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8)), "channel");
+            assertEquals(expected, parse(parser -> parser.parse(file, StandardCharsets.UTF_8)), "mapped file");
+            // windows of an odd size split two- and four-byte chars at their borders
+            for (long windowSize : new long[]{Tokenizer.MIN_MAPPED_WINDOW_SIZE, 17, 4099}) {
+                assertEquals(expected, parse(parser -> parser.parse(file, StandardCharsets.UTF_8, windowSize)),
+                      "mapped file, window " + windowSize);
+            }
+        }
+    }
+
+    @Test
+    void shouldRejectTooSmallWindows() throws IOException {
+        var file = Files.writeString(directory.resolve("input.txt"), "a + b");
+        var parser = new StreamParser(MATH_CONTEXT, new ErrorCollector());
+
+        assertThrows(IllegalArgumentException.class, () -> parser.parse(file, StandardCharsets.UTF_8, 3));
+    }
+
+    /**
+     * The expression repeated past a few chunks and closed by a number.
+     */
+    private static String repeated(String expression) {
+        return expression.repeat(3 * Tokenizer.CHUNK_SIZE / expression.length()) + "1";
+    }
+
+    /**
+     * An expression with the identifier starting one char before the end of the first chunk.
+     */
+    private static String splitAtChunkBorder(String identifier) {
+        var prefix = "1" + "+1".repeat((Tokenizer.CHUNK_SIZE - 4) / 2) + "+ ";
+        assertEquals(Tokenizer.CHUNK_SIZE - 1, prefix.length());
+        return prefix + identifier + " * 2";
+    }
+
+    private static ParseResult parseString(String input) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(MATH_CONTEXT, errorCollector).scan(input);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        return new ParseResult(syntaxTokens.toSyntaxTokens(), errorCollector.report());
+    }
+
+    private static ParseResult parse(Source source) throws IOException {
+        var errorCollector = new ErrorCollector();
+        var tokens = source.parse(new StreamParser(MATH_CONTEXT, errorCollector));
+        return new ParseResult(tokens.toSyntaxTokens(), errorCollector.report());
+    }
+
+    private interface Source {
+        TokenBuffer parse(StreamParser parser) throws IOException;
+    }
+
+    private record ParseResult(List<SyntaxToken> tokens, List<String> errors) {
+    }
+}
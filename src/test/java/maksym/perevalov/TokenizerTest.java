@@ -2,11 +2,14 @@ package maksym.perevalov;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
 import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.TokenBuffer;
 import maksym.perevalov.parser.Tokenizer;
 import maksym.perevalov.parser.Tokenizer.RowToken;
 import maksym.perevalov.parser.Tokenizer.TokenType;
@@ -61,4 +64,15 @@ class TokenizerTest {
               RowToken.endToken(14)
         ), tokens);
     }
+
+    @Test
+    void shouldTokenizeReaderTheSameWayAsString() throws IOException {
+        var input = "12.5 * ю.1 - sum(ab1.,3)".repeat(Tokenizer.CHUNK_SIZE / 7);
+        var tokens = TokenBuffer.pooled();
+
+        tokenizer().tokenize(new StringReader(input), tokens, () -> {
+        });
+
+        assertEquals(tokenizer().tokenize(input), tokens.toRowTokens());
+    }
 }
@@ -0,0 +1,83 @@
+package maksym.perevalov;
+
+import static maksym.perevalov.Trees.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import maksym.perevalov.tree.FlatTree;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.MathElement;
+import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeNodeFactory;
+import maksym.perevalov.tree.TreeOptimizer;
+
+class TreeNodeFactoryTest {
+    static MathContext MATH_CONTEXT = new MathContext(List.of("pow"), Map.of("a", 1.0, "b", 2.0, "c", 3.0));
+
+    @Test
+    void shouldCompareNodesByStructure() {
+        var tree = tree("a*b + (a*b) - pow(a, 2)", MATH_CONTEXT);
+        var sameTree = tree("a*b + (a*b) - pow(a, 2)", MATH_CONTEXT);
+
+        assertEquals(tree, sameTree);
+        assertEquals(tree.hashCode(), sameTree.hashCode());
+        assertNotEquals(tree, tree("a*b + a*b - pow(a, 2)", MATH_CONTEXT));
+        assertNotEquals(tree, tree("a*b + (a*c) - pow(a, 2)", MATH_CONTEXT));
+    }
+
+    @Test
+    void shouldShareEqualSubtrees() {
+        var factory = new TreeNodeFactory();
+        var tree = tree("a*b*c + a*b*c + c", MATH_CONTEXT);
+
+        var dag = factory.intern(tree);
+
+        assertEquals(tree, dag);
+        assertSame(dag.left().left(), dag.left().right());
+        assertSame(dag, factory.intern(tree("a*b*c + a*b*c + c", MATH_CONTEXT)));
+        assertSame(dag.right(), factory.node(new MathElement.Varaible("c")));
+        assertEquals(7, factory.size());
+    }
+
+    @Test
+    void shouldOptimizeAndComputeDag() {
+        for (var expression : List.of("a*b*c + a*b*c + c", "(a-b)/(a-b) - (a-b)*2", "pow(a, b) + pow(a, b) - 0*c")) {
+            var tree = tree(expression, MATH_CONTEXT);
+            var optimized = new TreeOptimizer(tree).optimize();
+
+            var sharedOptimized = new TreeOptimizer(tree, new TreeNodeFactory()).optimize();
+            var flatDag = FlatTree.of(sharedOptimized);
+
+            assertEquals(optimized, sharedOptimized, expression);
+            assertEquals(optimized.toExpressionString(), flatDag.toExpressionString(), expression);
+            assertEquals(optimized.weight(), flatDag.weight(), expression);
+            assertTrue(flatDag.size() < optimized.weight(), expression);
+            assertEquals(optimized.compute(MATH_CONTEXT), flatDag.compute(MATH_CONTEXT), expression);
+        }
+    }
+
+    @Test
+    void shouldInternDeepChains() {
+        var tree = tree("a" + " - b - c - a".repeat(50_000 / 3), MATH_CONTEXT);
+        var hashes = new HashSet<Integer>();
+        int chainLength = 0;
+        for (TreeNode node = tree; node != null; node = node.left()) {
+            hashes.add(node.hashCode());
+            chainLength++;
+        }
+
+        // every prefix of the chain is a distinct subtree, colliding hashes put them into one map bucket
+        assertTrue(hashes.size() > chainLength * 0.99, hashes.size() + " hashes for " + chainLength + " nodes");
+        var start = System.nanoTime();
+        var dag = new TreeNodeFactory().intern(tree);
+        var optimized = new TreeOptimizer(tree, new TreeNodeFactory()).optimize();
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "interning took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        assertEquals(tree, dag);
+        assertEquals(new TreeOptimizer(tree).optimize(), optimized);
+    }
+}
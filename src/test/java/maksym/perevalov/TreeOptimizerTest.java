@@ -112,6 +112,33 @@ class TreeOptimizerTest {
         assertEquals(5, optimizedHeight(expression));
     }
 
+    @Test
+    void test12() {
+        String expression = "a^2 + b^1 - c^0 + d^-1 - e^(3-1) + 2^3^2";
+        var optimized = new TreeOptimizer(buildTree(expression)).optimize();
+        assertEquals(result(expression), optimized.compute(MATH_CONTEXT));
+        assertFalse(optimized.toExpressionString().contains("^"), optimized.toExpressionString());
+    }
+
+    @Test
+    void test13() {
+        assertEquals(512.0, optimizedResult("2^3^2"));
+        assertEquals(1, optimizedHeight("2^3^2"));
+        assertEquals(Double.POSITIVE_INFINITY, optimizedResult("3^3^3^3^3"));
+        String expression = "(a+b)^2 - (c-d)^3 / f^0.5";
+        assertEquals(result(expression), optimizedResult(expression));
+    }
+
+    @Test
+    void shouldComputeIntegerPowersBySquaring() {
+        assertEquals(-8.0, MathElement.Power.apply(-2, 3));
+        assertEquals(0.25, MathElement.Power.apply(2, -2));
+        assertEquals(1.0, MathElement.Power.apply(Double.NaN, 0));
+        assertEquals(Math.pow(2, 0.5), MathElement.Power.apply(2, 0.5));
+        assertEquals(Math.pow(1.5, 1e10), MathElement.Power.apply(1.5, 1e10));
+        assertEquals(1024.0 * 1024 * 1024, MathElement.Power.apply(2, 30));
+    }
+
     double optimizedResult(String expression) {
         var optimizer = new TreeOptimizer(buildTree(expression));
         var optimized = optimizer.optimize();
@@ -0,0 +1,73 @@
+package maksym.perevalov;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.TokenBuffer;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Parsing of test expressions and the expressions every evaluation backend is checked on.
+ */
+final class Trees {
+    static final MathContext MATH_CONTEXT = new MathContext(List.of("pow"), Map.of("a", 1.5, "b", -2.0, "c", 3.0, "d", 0.25));
+    static final List<String> EXPRESSIONS = List.of(
+          "a+b+c+d",
+          "a-((b-c-d)-(c-a)-b)-c",
+          "5040/8/7/6/5/4/3/2",
+          "a*2/3 + b/(b+b*0.5-1*b) - 1/(c*2*4.76*(1-2+1.5))",
+          "-(5 + 1) * -a - pow(a, 2) / 2.0",
+          "-a*-b - -c/d + e"
+    );
+
+    private Trees() {
+    }
+
+    static TreeNode tree(String expression, MathContext context) {
+        return new InfixToTreeTransformer().transform(syntaxTokens(expression, context));
+    }
+
+    static TokenBuffer syntaxTokens(String expression, MathContext context) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(context, errorCollector).scan(expression);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        assertEquals(List.of(), errorCollector.report());
+        return syntaxTokens;
+    }
+
+    /**
+     * The tree as parsed and as optimized.
+     */
+    static List<TreeNode> rawAndOptimized(String expression, MathContext context) {
+        var tree = tree(expression, context);
+        return List.of(tree, new TreeOptimizer(tree).optimize());
+    }
+
+    /**
+     * Checks the backend against {@link TreeNode#compute} on every shared expression, as parsed and as optimized.
+     */
+    static void assertComputesLikeTree(ToDoubleFunction<TreeNode> backend) {
+        for (var expression : EXPRESSIONS) {
+            for (var node : rawAndOptimized(expression, MATH_CONTEXT)) {
+                assertEquals(node.compute(MATH_CONTEXT), backend.applyAsDouble(node), expression);
+            }
+        }
+    }
+
+    /**
+     * A distinct name for every index, names are letters only.
+     */
+    static String variable(int index) {
+        return "v" + (char) ('a' + index / 26) + (char) ('a' + index % 26);
+    }
+}
@@ -0,0 +1,51 @@
+package maksym.perevalov.bench;
+
+import java.util.List;
+import java.util.Random;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.FlatTree;
+import maksym.perevalov.tree.InfixToPostfixTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeBuilder;
+import maksym.perevalov.tree.TreeNodeFactory;
+
+/**
+ * Stages after the front end, measured on already parsed syntax tokens.
+ */
+public class BackEndBenchmark {
+
+    public static void main(String[] args) {
+        var context = new MathContext(List.of("sin", "cos"));
+        for (int terms : new int[]{10, 1_000, 100_000}) {
+            var formula = Formulas.sumOfProducts(terms, new Random(terms));
+            var errorCollector = new ErrorCollector();
+            var tokens = new Tokenizer(context, errorCollector).scan(formula);
+            var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+            var syntaxTokenList = syntaxTokens.toSyntaxTokens();
+            int operations = Math.max(1, 200_000 / terms);
+            System.out.printf("--- %s terms ---%n", terms);
+            Bench.run("postfix: element list", operations, () -> new InfixToPostfixTransformer().transform(syntaxTokenList));
+            Bench.run("postfix: program", operations, () -> new InfixToPostfixTransformer().compile(syntaxTokens));
+
+            var elements = new InfixToPostfixTransformer().transform(syntaxTokenList);
+            var program = new InfixToPostfixTransformer().compile(syntaxTokens);
+            Bench.run("tree: from element list", operations, () -> new TreeBuilder().buildTree(elements));
+            Bench.run("tree: from program", operations, () -> new TreeBuilder().buildTree(program));
+            Bench.run("flat tree: from program", operations, () -> new TreeBuilder().buildFlatTree(program));
+
+            var tree = new TreeBuilder().buildTree(program);
+            var flatTree = new TreeBuilder().buildFlatTree(program);
+            Bench.run("compute: tree", operations, () -> tree.compute(context));
+            Bench.run("compute: flat tree", operations, () -> flatTree.compute(context));
+
+            var dag = FlatTree.of(new TreeNodeFactory().intern(tree));
+            System.out.printf("nodes: tree %d, dag %d%n", flatTree.size(), dag.size());
+            Bench.run("dag: intern tree", operations, () -> new TreeNodeFactory().intern(tree));
+            Bench.run("compute: flat dag", operations, () -> dag.compute(context));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package maksym.perevalov.bench;
+
+import java.util.List;
+import java.util.Random;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Time of {@link TreeOptimizer#optimize()} on sums of 1k to 1M terms, per leaf and per leaf times log2 of the leaf count,
+ * the second one has to stay flat when balancing is O(n log n).
+ */
+public class BalancingBenchmark {
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        var context = new MathContext(List.of());
+        for (int terms : new int[]{1_000, 10_000, 100_000, 1_000_000}) {
+            var tree = parse(Formulas.sumOfProducts(terms, new Random(terms)), context);
+            long best = Long.MAX_VALUE;
+            int leaves = 0;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                var optimized = new TreeOptimizer(tree).optimize();
+                best = Math.min(best, System.nanoTime() - start);
+                leaves = (optimized.weight() + 1) / 2;
+            }
+            double perLeaf = (double) best / leaves;
+            System.out.printf("%,9d terms %,9d leaves %10.1f ms %8.1f ns/leaf %8.2f ns/(leaf*log2)%n",
+                  terms, leaves, best / 1e6, perLeaf, perLeaf / (Math.log(leaves) / Math.log(2)));
+        }
+    }
+
+    private static TreeNode parse(String formula, MathContext context) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(context, errorCollector).scan(formula);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        return new InfixToTreeTransformer().transform(syntaxTokens);
+    }
+}
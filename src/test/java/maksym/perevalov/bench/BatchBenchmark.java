@@ -0,0 +1,76 @@
+package maksym.perevalov.bench;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import maksym.perevalov.eval.BatchEvaluator;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * One optimized formula over a million rows: the stack machine row by row, and the batch evaluator with scalar and vector kernels.
+ * Run with --add-modules jdk.incubator.vector, otherwise the vector rows fall back to scalar kernels.
+ */
+public class BatchBenchmark {
+    private static final int ROWS = 1_000_000;
+
+    public static void main(String[] args) {
+        var variables = new HashMap<String, Double>();
+        var random = new Random(1);
+        for (int i = 0; i < 11; i++) {
+            variables.put(Formulas.variable(random), random.nextDouble());
+        }
+        var context = new MathContext(List.of(), variables);
+        for (int terms : new int[]{10, 100}) {
+            var formula = Formulas.sumOfProducts(terms, new Random(terms));
+            var errorCollector = new ErrorCollector();
+            var tokens = new Tokenizer(context, errorCollector).scan(formula);
+            var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+            var tree = new TreeOptimizer(new InfixToTreeTransformer().transform(syntaxTokens)).optimize();
+            var program = StackProgram.compile(tree);
+            var columns = new double[program.slotCount()][ROWS];
+            for (var column : columns) {
+                for (int row = 0; row < ROWS; row++) {
+                    column[row] = random.nextDouble() + 0.5;
+                }
+            }
+            var result = new double[ROWS];
+            var machine = new StackMachine(program);
+            var slots = new double[program.slotCount()];
+            var scalar = BatchEvaluator.scalar(program);
+            var vector = new BatchEvaluator(program);
+            var pool = ForkJoinPool.commonPool();
+            System.out.printf("--- %s terms, %s rows, vectorized: %s ---%n", terms, ROWS, vector.isVectorized());
+            Bench.run("stack machine: row by row", 1, () -> {
+                for (int row = 0; row < ROWS; row++) {
+                    for (int slot = 0; slot < slots.length; slot++) {
+                        slots[slot] = columns[slot][row];
+                    }
+                    result[row] = machine.evaluate(slots);
+                }
+                return result;
+            });
+            Bench.run("batch: scalar kernels", 1, () -> {
+                scalar.evaluate(columns, result);
+                return result;
+            });
+            Bench.run("batch: vector kernels", 1, () -> {
+                vector.evaluate(columns, result);
+                return result;
+            });
+            Bench.run("batch: vector kernels, fork join", 1, () -> {
+                vector.evaluate(columns, result, pool);
+                return result;
+            });
+        }
+    }
+}
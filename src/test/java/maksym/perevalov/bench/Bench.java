@@ -0,0 +1,50 @@
+package maksym.perevalov.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Minimal timing loop for the benchmark mains: warms the operation up, then reports time and allocated bytes per call.
+ * The mains are test sources, so they stay out of the artifact and run from the test classpath after {@code mvn test-compile},
+ * with {@code --enable-preview --add-modules jdk.incubator.vector}.
+ */
+final class Bench {
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static volatile Object sink;
+
+    private Bench() {
+    }
+
+    static Result run(String name, int operations, Supplier<?> operation) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            repeat(operations, operation);
+        }
+        long bytes = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            repeat(operations, operation);
+        }
+        long calls = (long) operations * ROUNDS;
+        var result = new Result(name, (double) (System.nanoTime() - start) / calls,
+              (double) (THREADS.getCurrentThreadAllocatedBytes() - bytes) / calls);
+        System.out.println(result);
+        return result;
+    }
+
+    private static void repeat(int operations, Supplier<?> operation) {
+        for (int i = 0; i < operations; i++) {
+            sink = operation.get();
+        }
+    }
+
+    record Result(String name, double nanosPerOperation, double bytesPerOperation) {
+        @Override
+        public String toString() {
+            return "%-48s %14.1f ns/op %14.1f B/op".formatted(name, nanosPerOperation, bytesPerOperation);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package maksym.perevalov.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import maksym.perevalov.eval.AstInterpreter;
+import maksym.perevalov.eval.BytecodeCompiler;
+import maksym.perevalov.eval.MethodHandleCompiler;
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeNode;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Optimized formulas compiled to hidden classes and to method handles against the tree, the stack machine
+ * and the specializing AST interpreter:
+ * the samples of Lab2 and generated formulas of about 10k nodes.
+ * Last, how many of the generated hidden classes a collection unloads, which depends on the collector and its flags.
+ */
+public class BytecodeBenchmark {
+    private static final List<String> SAMPLES = List.of(
+          "a+b+c+d+e+f+g+h",
+          "a-b-c-d-e-f-g-h",
+          "a+(b+c+d+(e+f)+g)+h",
+          "a-((b-c-d)-(e-f)-g)-h",
+          "a/b/c/d/e/f/g/h",
+          "a*b - b*c - c*d - a*c*(b-d/e/f/g) - (g - h) - (i-j)",
+          "5040/8/7/6/5/4/3/2",
+          "10-9-8-7-6-5-4-3-2-1",
+          "64-(32-16)-8-(4-2-1)",
+          "-i/1.0 + 0 - 0*k*h + 2 - 4.8/2 + 1*e/2",
+          "a*2/3 + b/(b+b*0.5-1*b) - 1/(c*2*4.76*(1-2+1.5))"
+    );
+
+    public static void main(String[] args) {
+        var variables = new HashMap<String, Double>();
+        var random = new Random(1);
+        for (var name : List.of("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k")) {
+            variables.put(name, random.nextDouble() + 0.5);
+        }
+        var context = new MathContext(List.of(), variables);
+        System.out.println("--- Lab2 samples ---");
+        var samples = SAMPLES.stream().map(sample -> tree(sample, context)).toList();
+        run("all samples", samples, context, 100_000);
+        var sample = StackProgram.compile(samples.get(5));
+        var sampleSlots = sample.slots(context);
+        var sampleMachine = new StackMachine(sample);
+        var sampleCompiled = MethodHandleCompiler.compile(sample);
+        Bench.run("sample 6: stack machine", 1_000_000, () -> sampleMachine.evaluate(sampleSlots));
+        Bench.run("sample 6: method handle in a field", 1_000_000, () -> sampleCompiled.evaluate(sampleSlots));
+        Bench.run("sample 6: static final method handle", 1_000_000, () -> {
+            try {
+                return (double) ConstantSample.HANDLE.invokeExact(sampleSlots);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        System.out.println("--- generated formulas of 10k nodes ---");
+        var formulas = List.of(
+              tree(Formulas.sumOfProducts(2_000, new Random(1)), context),
+              tree(Formulas.sumOfProducts(2_000, new Random(2)), context));
+        System.out.printf("nodes: %s%n", formulas.stream().mapToInt(TreeNode::weight).sum() / formulas.size());
+        run("two formulas", formulas, context, 2_000);
+        unloadClasses(samples.get(5));
+    }
+
+    private static void unloadClasses(TreeNode tree) {
+        var classLoading = ManagementFactory.getClassLoadingMXBean();
+        long unloaded = classLoading.getUnloadedClassCount();
+        var program = StackProgram.compile(tree);
+        for (int i = 0; i < 1_000; i++) {
+            BytecodeCompiler.compile(program);
+        }
+        for (int i = 0; i < 10 && classLoading.getUnloadedClassCount() - unloaded < 1_000; i++) {
+            System.gc();
+        }
+        System.out.printf("--- unloaded %s of 1000 unreachable classes ---%n", classLoading.getUnloadedClassCount() - unloaded);
+    }
+
+    private static void run(String name, List<TreeNode> trees, MathContext context, int operations) {
+        var programs = trees.stream().map(StackProgram::compile).toList();
+        var machines = programs.stream().map(StackMachine::new).toList();
+        var compiled = programs.stream().map(BytecodeCompiler::compile).toList();
+        var slots = programs.stream().map(program -> program.slots(context)).toList();
+        Bench.run(name + ": tree", operations, () -> {
+            double sum = 0;
+            for (var tree : trees) {
+                sum += tree.compute(context);
+            }
+            return sum;
+        });
+        Bench.run(name + ": stack machine", operations, () -> {
+            double sum = 0;
+            for (int i = 0; i < machines.size(); i++) {
+                sum += machines.get(i).evaluate(slots.get(i));
+            }
+            return sum;
+        });
+        var interpreters = programs.stream().map(AstInterpreter::new).toList();
+        Bench.run(name + ": ast interpreter", operations, () -> {
+            double sum = 0;
+            for (int i = 0; i < interpreters.size(); i++) {
+                sum += interpreters.get(i).evaluate(slots.get(i));
+            }
+            return sum;
+        });
+        Bench.run(name + ": bytecode", operations, () -> {
+            double sum = 0;
+            for (int i = 0; i < compiled.size(); i++) {
+                sum += compiled.get(i).evaluate(slots.get(i));
+            }
+            return sum;
+        });
+        var handles = programs.stream().map(MethodHandleCompiler::compile).toList();
+        Bench.run(name + ": method handle", operations, () -> {
+            double sum = 0;
+            for (int i = 0; i < handles.size(); i++) {
+                sum += handles.get(i).evaluate(slots.get(i));
+            }
+            return sum;
+        });
+        Bench.run(name + ": compile to bytecode", Math.max(1, operations / 100), () -> programs.stream().map(BytecodeCompiler::compile).toList());
+    }
+
+    /**
+     * Sample 6 as a constant for the JIT, the handle tree is inlined into the caller.
+     */
+    private static final class ConstantSample {
+        static final MethodHandle HANDLE = MethodHandleCompiler.handle(StackProgram.compile(
+              tree(SAMPLES.get(5), new MathContext(List.of(), Map.of()))));
+    }
+
+    private static TreeNode tree(String formula, MathContext context) {
+        var errorCollector = new ErrorCollector();
+        var tokens = new Tokenizer(context, errorCollector).scan(formula);
+        var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+        return new TreeOptimizer(new InfixToTreeTransformer().transform(syntaxTokens)).optimize();
+    }
+}
@@ -0,0 +1,58 @@
+package maksym.perevalov.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import maksym.perevalov.compiler.CompilationCache;
+import maksym.perevalov.compiler.Compiler;
+import maksym.perevalov.tree.MathContext;
+
+/**
+ * Throughput of {@link Compiler#compileAll(List, MathContext)} on pools of 1, 2, 4 and 8 threads.
+ * Allocation is not reported, because it happens on the pool threads.
+ * Then the cost of compiling the same formulas again, with and without {@link CompilationCache}.
+ */
+public class CompilerBenchmark {
+    private static final int FORMULAS = 10_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        var context = new MathContext(List.of("sin", "cos"));
+        var random = new Random(8);
+        var sources = new ArrayList<String>(FORMULAS);
+        for (int i = 0; i < FORMULAS; i++) {
+            sources.add(Formulas.sumOfProducts(5 + random.nextInt(40), random));
+        }
+        System.out.printf("%s formulas, %s cores%n", FORMULAS, Runtime.getRuntime().availableProcessors());
+        double single = 0;
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            var pool = new ForkJoinPool(threads);
+            var compiler = new Compiler(pool);
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                compiler.compileAll(sources, context);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                compiler.compileAll(sources, context);
+            }
+            double perSecond = (double) FORMULAS * ROUNDS / (System.nanoTime() - start) * 1e9;
+            single = threads == 1 ? perSecond : single;
+            System.out.printf("%s threads %14.0f formulas/s %8.2fx%n", threads, perSecond, perSecond / single);
+            pool.shutdown();
+        }
+
+        var hot = sources.subList(0, 1000);
+        var uncached = new Compiler();
+        // segments get equal parts of the capacity, so it is left some room for uneven hashing
+        var cache = CompilationCache.ofSize(hot.size() * 2L);
+        var cached = new Compiler(ForkJoinPool.commonPool(), cache);
+        var index = new int[1];
+        int operations = hot.size() * 2;
+        Bench.run("repeated compile: no cache", operations, () -> uncached.compile(hot.get(index[0]++ % hot.size()), context));
+        Bench.run("repeated compile: cache", operations, () -> cached.compile(hot.get(index[0]++ % hot.size()), context));
+        System.out.println(cache.stats());
+    }
+}
@@ -0,0 +1,57 @@
+package maksym.perevalov.bench;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import maksym.perevalov.eval.StackMachine;
+import maksym.perevalov.eval.StackProgram;
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.FlatTree;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Repeated evaluation of one optimized formula: the tree, the flat tree and the stack machine, that reads bound slots.
+ */
+public class EvaluatorBenchmark {
+
+    public static void main(String[] args) {
+        var variables = new HashMap<String, Double>();
+        var random = new Random(1);
+        for (int i = 0; i < 11; i++) {
+            variables.put(Formulas.variable(random), random.nextDouble());
+        }
+        var context = new MathContext(List.of(), variables);
+        for (int terms : new int[]{10, 1_000, 100_000}) {
+            var formula = Formulas.sumOfProducts(terms, new Random(terms));
+            var errorCollector = new ErrorCollector();
+            var tokens = new Tokenizer(context, errorCollector).scan(formula);
+            var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+            var tree = new TreeOptimizer(new InfixToTreeTransformer().transform(syntaxTokens)).optimize();
+            var flatTree = FlatTree.of(tree);
+            var program = StackProgram.compile(tree);
+            var machine = new StackMachine(program);
+            var slots = program.slots(context);
+            int operations = Math.max(1, 200_000 / terms);
+            System.out.printf("--- %s terms ---%n", terms);
+            Bench.run("compute: tree", operations, () -> tree.compute(context));
+            Bench.run("compute: flat tree", operations, () -> flatTree.compute(context));
+            Bench.run("stack machine: compile", operations, () -> StackProgram.compile(tree));
+            Bench.run("stack machine: evaluate", operations, () -> machine.evaluate(slots));
+            var bindings = program.bindings();
+            var inputs = program.slots(context);
+            Bench.run("stack machine: bind by slot and evaluate", operations, () -> {
+                for (int slot = 0; slot < inputs.length; slot++) {
+                    bindings.set(slot, inputs[slot]);
+                }
+                return machine.evaluate(bindings);
+            });
+            Bench.run("stack machine: bind by name and evaluate", operations, () -> machine.evaluate(bindings.setAll(variables)));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package maksym.perevalov.bench;
+
+import java.util.Random;
+
+/**
+ * Generated formulas shaped like the ones exported from models: long sums of products.
+ */
+final class Formulas {
+    private static final String[] VARIABLES = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k"};
+
+    private Formulas() {
+    }
+
+    static String sumOfProducts(int terms, Random random) {
+        var formula = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                formula.append(random.nextBoolean() ? " + " : " - ");
+            }
+            formula.append(term(random));
+        }
+        return formula.toString();
+    }
+
+    static String term(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> "%s*%s".formatted(variable(random), variable(random));
+            case 1 -> "%d.%d*%s".formatted(random.nextInt(100), random.nextInt(10), variable(random));
+            case 2 -> "-(%s - %s/%d)".formatted(variable(random), variable(random), 1 + random.nextInt(9));
+            default -> "%s*(%s + %d)".formatted(variable(random), variable(random), random.nextInt(10));
+        };
+    }
+
+    static String variable(Random random) {
+        return VARIABLES[random.nextInt(VARIABLES.length)];
+    }
+}
@@ -0,0 +1,43 @@
+package maksym.perevalov.bench;
+
+import java.util.List;
+import java.util.Random;
+
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.FormulaValidator;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.MathContext;
+
+/**
+ * Compares the record based front end API with the one pass over {@link maksym.perevalov.parser.TokenBuffer}
+ * and with validation that keeps no tokens.
+ */
+public class FrontEndBenchmark {
+
+    public static void main(String[] args) {
+        var context = new MathContext(List.of("sin", "cos"));
+        for (int terms : new int[]{10, 1_000, 100_000}) {
+            var formula = Formulas.sumOfProducts(terms, new Random(terms));
+            int operations = Math.max(1, 200_000 / terms);
+            System.out.printf("--- %s terms, %s chars ---%n", terms, formula.length());
+            Bench.run("records: tokenize + parse", operations, () -> {
+                var errorCollector = new ErrorCollector();
+                var tokens = new Tokenizer(context, errorCollector).tokenize(formula);
+                return new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parse();
+            });
+            Bench.run("columnar: scan + one pass", operations, () -> {
+                var errorCollector = new ErrorCollector();
+                var tokens = new Tokenizer(context, errorCollector).scan(formula);
+                return new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+            });
+            var validator = new FormulaValidator(context);
+            Bench.run("validation only", operations, () -> validator.validate(formula));
+
+            var garbage = formula.replace('*', ',');
+            Bench.run("garbage: full report", operations, () -> validator.validate(garbage));
+            Bench.run("garbage: fail fast", operations, () -> validator.isValid(garbage));
+        }
+    }
+}
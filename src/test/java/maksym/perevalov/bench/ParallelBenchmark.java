@@ -0,0 +1,65 @@
+package maksym.perevalov.bench;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import maksym.perevalov.eval.ParallelEvaluator;
+import maksym.perevalov.parser.BracketsContext;
+import maksym.perevalov.parser.ErrorCollector;
+import maksym.perevalov.parser.SyntaxParser;
+import maksym.perevalov.parser.Tokenizer;
+import maksym.perevalov.tree.InfixToTreeTransformer;
+import maksym.perevalov.tree.MathContext;
+import maksym.perevalov.tree.TreeOptimizer;
+
+/**
+ * Balanced trees of about 100k and 1M nodes, computed by {@code TreeNode.compute} on one thread and by the fork-join evaluator
+ * on pools of the parallelism given as arguments, 1 and the number of cores by default, with the speedup over one thread.
+ * The default threshold is compared with a smaller and a bigger one on the biggest pool, run it as
+ * {@code ParallelBenchmark 1 2 4 8} on an 8-core machine to see whether the default pays off.
+ */
+public class ParallelBenchmark {
+
+    public static void main(String[] args) {
+        var variables = new HashMap<String, Double>();
+        var random = new Random(1);
+        for (int i = 0; i < 11; i++) {
+            variables.put(Formulas.variable(random), random.nextDouble());
+        }
+        var context = new MathContext(List.of(), variables);
+        var levels = args.length > 0
+              ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+              : IntStream.of(1, Runtime.getRuntime().availableProcessors()).distinct().toArray();
+        System.out.printf("--- cores: %s ---%n", Runtime.getRuntime().availableProcessors());
+        for (int terms : new int[]{20_000, 200_000}) {
+            var formula = Formulas.sumOfProducts(terms, new Random(terms));
+            var errorCollector = new ErrorCollector();
+            var tokens = new Tokenizer(context, errorCollector).scan(formula);
+            var syntaxTokens = new SyntaxParser(tokens, new BracketsContext(errorCollector), errorCollector).parseTokens();
+            var tree = new TreeOptimizer(new InfixToTreeTransformer().transform(syntaxTokens)).optimize();
+            System.out.printf("--- %s nodes, height %s ---%n", tree.weight(), tree.height());
+            var sequential = Bench.run("tree: sequential", 1, () -> tree.compute(context));
+            for (int parallelism : levels) {
+                var pool = new ForkJoinPool(parallelism);
+                try {
+                    var evaluator = new ParallelEvaluator(context);
+                    var result = Bench.run("tree: fork join, parallelism " + parallelism, 1, () -> evaluator.evaluate(tree, pool));
+                    System.out.printf("speedup: %.2f%n", sequential.nanosPerOperation() / result.nanosPerOperation());
+                    if (parallelism == Arrays.stream(levels).max().orElseThrow()) {
+                        for (int threshold : new int[]{1 << 10, 1 << 16}) {
+                            var other = new ParallelEvaluator(context, threshold);
+                            var thresholdResult = Bench.run("tree: fork join, threshold " + threshold, 1, () -> other.evaluate(tree, pool));
+                            System.out.printf("speedup: %.2f%n", sequential.nanosPerOperation() / thresholdResult.nanosPerOperation());
+                        }
+                    }
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+}